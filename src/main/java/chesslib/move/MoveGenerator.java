@@ -48,12 +48,14 @@ public class MoveGenerator {
                         moves.add(new Move(sqSource, sqTarget, Piece.WHITE_ROOK));
                         moves.add(new Move(sqSource, sqTarget, Piece.WHITE_BISHOP));
                         moves.add(new Move(sqSource, sqTarget, Piece.WHITE_KNIGHT));
+                        moves.add(new Move(sqSource, sqTarget, Piece.WHITE_KING));
                     } else if (Side.BLACK.equals(side) &&
                             Rank.RANK_1.equals(sqTarget.getRank())) {
                         moves.add(new Move(sqSource, sqTarget, Piece.BLACK_QUEEN));
                         moves.add(new Move(sqSource, sqTarget, Piece.BLACK_ROOK));
                         moves.add(new Move(sqSource, sqTarget, Piece.BLACK_BISHOP));
                         moves.add(new Move(sqSource, sqTarget, Piece.BLACK_KNIGHT));
+                        moves.add(new Move(sqSource, sqTarget, Piece.BLACK_KING));
                     } else {
                         moves.add(new Move(sqSource, sqTarget, Piece.NONE));
                     }
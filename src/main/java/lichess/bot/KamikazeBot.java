@@ -1,12 +1,39 @@
 package lichess.bot;
 
+import lichess.bot.ai.FlatOpeningBook;
+import lichess.bot.ai.LearnedWins;
 import lichess.bot.ai.OpeningBook;
+import lichess.bot.ai.SearchMemoryBudget;
+import lichess.bot.ai.SearchScheduler;
+import lichess.bot.ai.SearchWarmUp;
+import lichess.bot.ai.SearchTraceRecorder;
+import lichess.bot.ai.Tablebase;
 import lichess.bot.model.Event;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.CountDownLatch;
 
 public class KamikazeBot extends LichessBot {
-    private final OpeningBook openingBook = new OpeningBook();
+    // Written by lichess.bot.ai.OpeningBookConverter. When it is there, the bundled book is not loaded at all; otherwise
+    // it loads in the background, and games play without it until it is ready.
+    private static final Path FLAT_OPENING_BOOK = Paths.get("book.kzob");
+    private static final double MEMORY_BUDGET_HEAP_FRACTION = 0.5;
+
+    private final FlatOpeningBook flatOpeningBook = openFlatOpeningBook();
+    private final OpeningBook openingBook = flatOpeningBook == null ? OpeningBook.loadInBackground() : null;
+    private Tablebase tablebase = null;
+    private SearchTraceRecorder traceRecorder = null;
+    private LearnedWins learnedWins = null;
+    // Shared by all games, so that their searches never need more cores than there are.
+    private final SearchScheduler searchScheduler = new SearchScheduler();
+    // Shared by the search trees of all games, so that many games at once cannot run out of memory.
+    private final SearchMemoryBudget memoryBudget = SearchMemoryBudget.ofHeap(MEMORY_BUDGET_HEAP_FRACTION);
+    // Open once the search has been compiled by the JIT, see SearchWarmUp. Challenges that arrive before then are
+    // declined rather than waited on, as acceptChallenge runs on the thread that reads the event stream.
+    private final CountDownLatch warmedUp = startWarmUp();
 
     public KamikazeBot(String apiToken) throws IOException {
         super(apiToken);
@@ -16,13 +43,72 @@ public class KamikazeBot extends LichessBot {
         super(apiToken, registerBot);
     }
 
+    private static FlatOpeningBook openFlatOpeningBook() {
+        if (!Files.exists(FLAT_OPENING_BOOK)) {
+            return null;
+        }
+        try {
+            return FlatOpeningBook.open(FLAT_OPENING_BOOK);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private static CountDownLatch startWarmUp() {
+        CountDownLatch warmedUp = new CountDownLatch(1);
+        Thread warmUp = new Thread(() -> {
+            try {
+                SearchWarmUp.run(KamikazeEngine::newPlainSearch);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            } finally {
+                warmedUp.countDown();
+            }
+        }, "kamikaze-warm-up");
+        warmUp.setDaemon(true);
+        warmUp.start();
+        return warmedUp;
+    }
+
+    /**
+     * Solve endgames in games started from now on with the tables in the given directory, as written by
+     * {@link lichess.bot.ai.TablebaseGenerator}.
+     */
+    public void useTablebase(Path directory) throws IOException {
+        tablebase = Tablebase.open(directory);
+    }
+
+    /**
+     * Append a record of every search in games started from now on to the given file, which can be inspected with
+     * {@link lichess.bot.ai.SearchTraceReader}.
+     */
+    public void recordSearchesTo(Path traceFile) throws IOException {
+        traceRecorder = new SearchTraceRecorder(traceFile);
+    }
+
+    /**
+     * Remember every position solved in games started from now on in the given file, and play the wins found there
+     * without searching. The file keeps growing across games and restarts.
+     */
+    public void learnWinsIn(Path file) throws IOException {
+        learnedWins = new LearnedWins(file);
+    }
+
     @Override
     protected Engine newEngineInstance(ChatroomHandle chatroomHandle) {
-        return new KamikazeEngine(chatroomHandle, openingBook);
+        return new KamikazeEngine(chatroomHandle, openingBook, flatOpeningBook, tablebase, traceRecorder, learnedWins, searchScheduler, memoryBudget);
     }
 
     @Override
     protected boolean acceptChallenge(Event.Challenge challenge) {
-        return challenge.variant.key.equals("antichess");
+        if (!challenge.variant.key.equals("antichess")) {
+            return false;
+        }
+        if (warmedUp.getCount() > 0) {
+            System.out.println("Declining challenge, still warming up");
+            return false;
+        }
+        return true;
     }
 }
@@ -2,31 +2,103 @@ package lichess.bot;
 
 import chesslib.*;
 import chesslib.move.Move;
+import lichess.bot.ai.AlphaBetaSearch;
+import lichess.bot.ai.AnytimeSearch;
+import lichess.bot.ai.FlatOpeningBook;
+import lichess.bot.ai.LearnedWins;
 import lichess.bot.ai.MonteCarloTreeSearch;
 import lichess.bot.ai.OpeningBook;
+import lichess.bot.ai.ProofNumberSearch;
+import lichess.bot.ai.SearchDispatcher;
+import lichess.bot.ai.SearchMemoryBudget;
+import lichess.bot.ai.SearchScheduler;
+import lichess.bot.ai.SearchSnapshot;
+import lichess.bot.ai.SearchTraceRecorder;
+import lichess.bot.ai.SimpleSuicideBoardEvaluator;
+import lichess.bot.ai.Tablebase;
+import lichess.bot.ai.TerminalClassifier;
+import lichess.bot.ai.TimeManager;
 import lichess.bot.chat.ChatEngine;
 
 import java.io.IOException;
 import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 public class KamikazeEngine implements Engine {
+    private static final long MAX_PONDER_MILLIS = 60000L;
+    private static final int PLAYOUT_CUTOFF_DEPTH = 20;
+    private static final long PROOF_NUMBER_SEARCH_NODES = 20000;
+    // The proof-number search gets at most this long, and at most 1/PROOF_NUMBER_SEARCH_SOFT_DIVISOR of the soft limit.
+    private static final long PROOF_NUMBER_SEARCH_MILLIS = 500L;
+    private static final long PROOF_NUMBER_SEARCH_SOFT_DIVISOR = 4;
+    private static final int MAX_ALPHA_BETA_DEPTH = 64;
+    private static final long UNTIMED_SEARCH_LIMIT = 25000;
+    private static final long SNAPSHOT_PERIOD_MILLIS = 100L;
+
     private final ChatroomHandle chatroomHandle;
     private final OpeningBook openingBook;
+    private final FlatOpeningBook flatOpeningBook;
+    private final Tablebase tablebase;
+    private final SearchTraceRecorder traceRecorder;
+    private final LearnedWins learnedWins;
+    private final SearchScheduler.Ticket searchTicket;
+    private final SearchMemoryBudget memoryBudget;
+    private final ProofNumberSearch proofNumberSearch = new ProofNumberSearch(PROOF_NUMBER_SEARCH_NODES);
+    private final AlphaBetaSearch alphaBetaSearch = new AlphaBetaSearch(new SimpleSuicideBoardEvaluator());
     private OpeningBook.BookNode openingBookNode;
+    private int flatOpeningBookNode;
+    // Whether this game follows the book once it has finished loading, replaying the moves made in the meantime.
+    private boolean openingBookPending = false;
+    private boolean fromStartingPosition = true;
+    private final List<Move> gameMoves = new ArrayList<>();
     private Board board = new Board();
     private ChatEngine chatEngine = new ChatEngine();
-    private MonteCarloTreeSearch mcts = new MonteCarloTreeSearch(new Board());
+    private volatile MonteCarloTreeSearch mcts;
     private String initialFen;
     private String nextMove = null;
     private String movesPlayed = "";
     private Side mySide = Side.WHITE;
     private boolean ggSent = false;
+    private Thread ponderThread = null;
+    private long myTimeLeftMillis = 0;
+    private long myIncrementMillis = 0;
 
     public KamikazeEngine(ChatroomHandle chatroomHandle, OpeningBook openingBook) {
+        this(chatroomHandle, openingBook, null, null, null, null, null, null);
+    }
+
+    /**
+     * @param openingBook     the book to play from, unless flatOpeningBook is given
+     * @param flatOpeningBook the book to play from instead of openingBook, or null to use openingBook
+     * @param tablebase       solves endgames it contains, or null to search them
+     * @param traceRecorder   records every search for later analysis, or null to record nothing
+     * @param learnedWins     positions solved in earlier games, which this game adds to, or null to solve everything anew
+     * @param searchScheduler shares the cores with the searches of other games, or null to search whenever this game
+     *                        needs to
+     * @param memoryBudget    shares one memory limit with the search trees of other games, or null for a quarter of the
+     *                        heap for this game alone
+     */
+    public KamikazeEngine(ChatroomHandle chatroomHandle, OpeningBook openingBook, FlatOpeningBook flatOpeningBook, Tablebase tablebase,
+                          SearchTraceRecorder traceRecorder, LearnedWins learnedWins, SearchScheduler searchScheduler,
+                          SearchMemoryBudget memoryBudget) {
         this.chatroomHandle = chatroomHandle;
         this.openingBook = openingBook;
-        this.openingBookNode = openingBook.getRootNode();
+        this.flatOpeningBook = flatOpeningBook;
+        this.tablebase = tablebase;
+        this.traceRecorder = traceRecorder;
+        this.learnedWins = learnedWins;
+        this.searchTicket = searchScheduler == null ? null : searchScheduler.newTicket();
+        this.memoryBudget = memoryBudget;
+        proofNumberSearch.setSchedulerTicket(searchTicket);
+        alphaBetaSearch.setSchedulerTicket(searchTicket);
+        this.mcts = newSearch(board);
+        resetOpeningBook(true);
     }
 
     @Override
@@ -43,8 +115,9 @@ public class KamikazeEngine implements Engine {
         }
 
         if (text.startsWith("#eval")) {
-            double evaluation = mcts.evaluation();
-            if (board.getSideToMove() != mySide) {
+            SearchSnapshot snapshot = mcts.snapshot();
+            double evaluation = snapshot.getWinRate();
+            if (snapshot.getSideToMove() != mySide) {
                 evaluation = 1 - evaluation;
             }
             return "I believe my chance of winning is " + String.format("%d percent", Math.round(evaluation * 100));
@@ -55,18 +128,19 @@ public class KamikazeEngine implements Engine {
 
     @Override
     public void initializeBoardState(String initialFen, boolean white) {
+        stopPondering();
         mySide = white ? Side.WHITE : Side.BLACK;
 
         if (initialFen.equals("startpos")) {
             board = new Board();
             this.initialFen = board.getFen();
-            mcts = new MonteCarloTreeSearch(board);
-            openingBookNode = openingBook.getRootNode();
+            replaceSearch();
+            resetOpeningBook(true);
         } else {
             this.initialFen = initialFen;
             board.loadFromFen(initialFen);
-            mcts = new MonteCarloTreeSearch(board);
-            openingBookNode = null;
+            replaceSearch();
+            resetOpeningBook(false);
         }
 
         try {
@@ -82,59 +156,351 @@ public class KamikazeEngine implements Engine {
             return;
         }
 
-        if (!moves.startsWith(movesPlayed)) {
-            System.out.println("Warning, moves are inconsistent");
-            movesPlayed = "";
+        stopPondering();
+
+        // Events carry the whole game so far: normally the moves already played plus new ones, of which only the new
+        // ones are read.
+        int playedLength = movesPlayed.length();
+        if (moves.startsWith(movesPlayed) && (playedLength == 0 || playedLength == moves.length() || moves.charAt(playedLength) == ' ')) {
+            applyMoves(moves, playedLength, true);
+        } else {
+            System.out.println("Warning, moves are inconsistent, replaying them");
             board.loadFromFen(initialFen);
-            mcts = new MonteCarloTreeSearch(board);
+            resetOpeningBook(fromStartingPosition);
+            applyMoves(moves, 0, false);
+            if (!mcts.reroot(board)) {
+                System.out.println("Position is not in the search tree, starting a new one");
+            }
         }
 
-        String movesToApply = moves.substring(movesPlayed.length()).trim();
+        seedSearchFromOpeningBook();
+        System.out.println(board.toString());
+        movesPlayed = moves;
+        myTimeLeftMillis = mySide == Side.WHITE ? wtime : btime;
+        myIncrementMillis = mySide == Side.WHITE ? winc : binc;
 
-        if (movesToApply.length() > 0) {
-            for (String move : movesToApply.split(" ")) {
-                Square from = Square.fromValue(move.substring(0, 2).toUpperCase());
-                Square to = Square.fromValue(move.substring(2, 4).toUpperCase());
-                Piece promotion = Piece.NONE;
-                if (move.length() == 5) {
-                    promotion = Piece.make(board.getSideToMove(), Constants.getPieceByNotation(move.substring(4, 5)).getPieceType());
-                }
-                Move moveMade = new Move(from, to, promotion);
-                board.doMove(moveMade);
-                mcts.applyMove(moveMade);
-                openingBookNode = openingBook.applyMove(openingBookNode, moveMade);
+        if (TerminalClassifier.classify(board) != TerminalClassifier.Outcome.ONGOING) {
+            finishGame();
+        } else if (board.getSideToMove() != mySide) {
+            startPondering(mySide == Side.WHITE ? btime : wtime);
+        }
+    }
+
+    /**
+     * Play the space-separated UCI moves in moves from index start on, reading them in place.
+     *
+     * @param advanceSearch whether to move the search tree along, as opposed to leaving it for the caller to reroot
+     */
+    private void applyMoves(String moves, int start, boolean advanceSearch) {
+        int length = moves.length();
+        while (start < length) {
+            if (moves.charAt(start) == ' ') {
+                start++;
+                continue;
             }
+            int end = start;
+            while (end < length && moves.charAt(end) != ' ') {
+                end++;
+            }
+
+            Move move = parseUciMove(moves, start, end, board.getSideToMove());
+            board.doMove(move);
+            if (advanceSearch) {
+                mcts.applyMove(move);
+            }
+            followOpeningBook(move);
+            start = end;
         }
+    }
 
-        System.out.println(board.toString());
-        movesPlayed = moves;
+    /**
+     * The UCI move in moves between start and end, e.g. e2e4 or a7a8q, made by side.
+     */
+    static Move parseUciMove(CharSequence moves, int start, int end, Side side) {
+        Square from = Square.squareAt(moves.charAt(start) - 'a' + 8 * (moves.charAt(start + 1) - '1'));
+        Square to = Square.squareAt(moves.charAt(start + 2) - 'a' + 8 * (moves.charAt(start + 3) - '1'));
+        if (end - start < 5) {
+            return new Move(from, to);
+        }
+
+        PieceType promotion;
+        switch (moves.charAt(start + 4)) {
+            case 'q':
+                promotion = PieceType.QUEEN;
+                break;
+            case 'r':
+                promotion = PieceType.ROOK;
+                break;
+            case 'b':
+                promotion = PieceType.BISHOP;
+                break;
+            case 'n':
+                promotion = PieceType.KNIGHT;
+                break;
+            case 'k':
+                promotion = PieceType.KING;
+                break;
+            default:
+                throw new IllegalArgumentException("Not a UCI move: " + moves.subSequence(start, end));
+        }
+        return new Move(from, to, Piece.make(side, promotion));
     }
 
     @Override
     public String makeMove() {
+        stopPondering();
+
         if (nextMove != null) {
             String moveToMake = nextMove;
             nextMove = null;
+            if (moveToMake.equals("resign")) {
+                finishGame();
+            }
             return moveToMake;
         }
 
-        Optional<Move> bestMove = openingBook.findBestMove(openingBookNode);
+        TimeManager timeManager = TimeManager.forMove(myTimeLeftMillis, myIncrementMillis, gameMoves.size() / 2);
+        System.out.println("Time for this move: " + timeManager);
+        if (searchTicket != null) {
+            searchTicket.setDeadline(Instant.now().plus(timeManager.getHardLimit()));
+        }
+
+        Optional<Move> bestMove = findOpeningBookMove();
         if (bestMove.isPresent()) {
             System.out.println("Using opening book move " + bestMove.get());
             return bestMove.get().toString();
         }
 
-        Move move = mcts.findBestMove(Duration.ofMillis(20000L), 25000);
+        if (learnedWins != null) {
+            Move learnedWin = learnedWins.findWinningMove(board);
+            if (learnedWin != null) {
+                System.out.println("Playing learned win " + learnedWin);
+                sendGG();
+                return learnedWin.toString();
+            }
+        }
 
-        if (mcts.isGameGoingToEndSoon() && !ggSent) {
-            try {
-                chatroomHandle.sendMessage(chatEngine.getGG());
-                ggSent = true;
-            } catch (IOException e) {
-                e.printStackTrace();
+        long proofNumberSearchMillis = Math.min(PROOF_NUMBER_SEARCH_MILLIS, timeManager.getSoftLimit().toMillis() / PROOF_NUMBER_SEARCH_SOFT_DIVISOR);
+        Move forcedWin = proofNumberSearch.findForcedWin(board, Duration.ofMillis(proofNumberSearchMillis));
+        if (forcedWin != null) {
+            learnWin(forcedWin);
+            sendGG();
+            return forcedWin.toString();
+        }
+
+        if (SearchDispatcher.choose(board) == SearchDispatcher.Algorithm.ALPHA_BETA) {
+            AlphaBetaSearch.Result result = alphaBetaSearch.search(board, timeManager.remainingSoft(), MAX_ALPHA_BETA_DEPTH);
+            if (result.getMove() != null) {
+                if (result.isProvenWin()) {
+                    learnWin(result.getMove());
+                    sendGG();
+                }
+                return result.getMove().toString();
             }
         }
 
+        AnytimeSearch search = AnytimeSearch.start(mcts, timeManager.remainingHard(), timeManager.isTimed() ? Long.MAX_VALUE : UNTIMED_SEARCH_LIMIT);
+        if (timeManager.isTimed()) {
+            search.subscribe(snapshot -> {
+                if (timeManager.shouldStop(snapshot)) {
+                    search.stop();
+                }
+            }, Duration.ofMillis(SNAPSHOT_PERIOD_MILLIS));
+        }
+        Move move = search.awaitResult();
+        System.out.println("Search finished: " + search.snapshot());
+
+        if (mcts.isGameGoingToEndSoon()) {
+            sendGG();
+        }
+
         return move == null ? null : move.toString();
     }
+
+    private void learnWin(Move winningMove) {
+        if (learnedWins == null) {
+            return;
+        }
+        learnedWins.recordWin(board, winningMove);
+    }
+
+    private void sendGG() {
+        if (ggSent) {
+            return;
+        }
+
+        try {
+            chatroomHandle.sendMessage(chatEngine.getGG());
+            ggSent = true;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Start following the book from its root, or stop following it for a game that does not start from the starting
+     * position. A book that is still loading is picked up once it is ready.
+     */
+    private void resetOpeningBook(boolean fromStartingPosition) {
+        this.fromStartingPosition = fromStartingPosition;
+        gameMoves.clear();
+        if (flatOpeningBook != null) {
+            flatOpeningBookNode = fromStartingPosition ? flatOpeningBook.getRoot() : FlatOpeningBook.NO_NODE;
+        } else {
+            openingBookNode = fromStartingPosition ? openingBook.getRootNode() : null;
+            openingBookPending = fromStartingPosition && !openingBook.isLoaded();
+        }
+    }
+
+    private void followOpeningBook(Move move) {
+        gameMoves.add(move);
+        if (flatOpeningBook != null) {
+            flatOpeningBookNode = flatOpeningBook.child(flatOpeningBookNode, move);
+        } else if (!openingBookPending) {
+            openingBookNode = openingBook.applyMove(openingBookNode, move);
+        }
+    }
+
+    /**
+     * The book move for the current position.
+     */
+    private Optional<Move> findOpeningBookMove() {
+        refreshOpeningBookNode();
+        if (flatOpeningBook != null) {
+            return flatOpeningBook.findBestMove(flatOpeningBookNode);
+        }
+        return openingBook.findBestMove(openingBookNode);
+    }
+
+    /**
+     * Catch up with a book that finished loading during the game. Once the game leaves the book's lines, or if it did
+     * not start from the starting position, the book is looked up by position, so that transpositions lead back into
+     * it.
+     */
+    private void refreshOpeningBookNode() {
+        if (flatOpeningBook != null) {
+            if (flatOpeningBookNode == FlatOpeningBook.NO_NODE) {
+                flatOpeningBookNode = flatOpeningBook.findNode(board);
+            }
+            return;
+        }
+        if (openingBookPending && openingBook.isLoaded()) {
+            openingBookPending = false;
+            openingBookNode = openingBook.getRootNode();
+            for (Move move : gameMoves) {
+                openingBookNode = openingBook.applyMove(openingBookNode, move);
+            }
+            System.out.println("Opening book ready, " + (openingBookNode != null ? "following it" : "but we already left it") + " after " + gameMoves.size() + " moves");
+        }
+        if (openingBookNode == null && !openingBookPending) {
+            openingBookNode = openingBook.findNode(board);
+        }
+    }
+
+    /**
+     * Start the search from the book's ratios for the moves in the current position and the replies to each of them,
+     * so that it spends its first playouts on the lines the book knows to be good.
+     */
+    private void seedSearchFromOpeningBook() {
+        refreshOpeningBookNode();
+        if (flatOpeningBook != null && flatOpeningBookNode != FlatOpeningBook.NO_NODE) {
+            mcts.seedPriors(Collections.emptyList(), flatOpeningBookRatios(flatOpeningBookNode));
+            int firstChild = flatOpeningBook.getFirstChild(flatOpeningBookNode);
+            for (int child = firstChild; child < firstChild + flatOpeningBook.getChildCount(flatOpeningBookNode); child++) {
+                mcts.seedPriors(Collections.singletonList(flatOpeningBook.getMove(child)), flatOpeningBookRatios(child));
+            }
+        } else if (flatOpeningBook == null && openingBookNode != null) {
+            mcts.seedPriors(Collections.emptyList(), openingBookRatios(openingBookNode));
+            for (OpeningBook.BookNode child : openingBookNode.children) {
+                mcts.seedPriors(Collections.singletonList(child.move), openingBookRatios(child));
+            }
+        }
+    }
+
+    private Map<Move, Double> flatOpeningBookRatios(int node) {
+        Map<Move, Double> ratios = new HashMap<>();
+        int firstChild = flatOpeningBook.getFirstChild(node);
+        for (int child = firstChild; child < firstChild + flatOpeningBook.getChildCount(node); child++) {
+            ratios.put(flatOpeningBook.getMove(child), flatOpeningBook.getRatio(child));
+        }
+        return ratios;
+    }
+
+    private static Map<Move, Double> openingBookRatios(OpeningBook.BookNode node) {
+        Map<Move, Double> ratios = new HashMap<>();
+        for (OpeningBook.BookNode child : node.children) {
+            ratios.put(child.move, child.ratio);
+        }
+        return ratios;
+    }
+
+    /**
+     * Start a new search tree from the board, leaving the memory of the old one to other games.
+     */
+    private void replaceSearch() {
+        if (memoryBudget != null) {
+            memoryBudget.leave(mcts);
+        }
+        mcts = newSearch(board);
+    }
+
+    /**
+     * Leave the shared memory budget once the game is over, so that the other games get this one's share. Endings the
+     * engine is not told about, such as the opponent resigning, free the share once the engine is garbage collected.
+     */
+    private void finishGame() {
+        if (memoryBudget != null) {
+            memoryBudget.leave(mcts);
+        }
+    }
+
+    private MonteCarloTreeSearch newSearch(Board board) {
+        MonteCarloTreeSearch search = newPlainSearch(board);
+        search.setTablebase(tablebase);
+        search.setTraceRecorder(traceRecorder);
+        search.setLearnedWins(learnedWins);
+        search.setSchedulerTicket(searchTicket);
+        if (memoryBudget != null) {
+            search.setMemoryBudget(memoryBudget);
+        }
+        return search;
+    }
+
+    /**
+     * A search that plays like the engine's, but without a tablebase, learned wins, trace recorder or scheduler.
+     */
+    static MonteCarloTreeSearch newPlainSearch(Board board) {
+        MonteCarloTreeSearch search = new MonteCarloTreeSearch(board);
+        search.setPlayoutCutoff(PLAYOUT_CUTOFF_DEPTH, new SimpleSuicideBoardEvaluator());
+        return search;
+    }
+
+    /**
+     * Search the current tree in the background while the opponent is on the clock, so that their reply reroots us into
+     * an already grown subtree.
+     */
+    private void startPondering(long opponentTimeLeftMillis) {
+        long ponderMillis = opponentTimeLeftMillis > 0 ? Math.min(opponentTimeLeftMillis, MAX_PONDER_MILLIS) : MAX_PONDER_MILLIS;
+        MonteCarloTreeSearch tree = mcts;
+        if (searchTicket != null) {
+            searchTicket.setDeadline(null); // Pondering only uses cores no move search needs
+        }
+        ponderThread = new Thread(() -> tree.ponder(Duration.ofMillis(ponderMillis)), "kamikaze-ponder");
+        ponderThread.setDaemon(true);
+        ponderThread.start();
+    }
+
+    private void stopPondering() {
+        if (ponderThread == null) {
+            return;
+        }
+
+        ponderThread.interrupt();
+        try {
+            ponderThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        ponderThread = null;
+    }
 }
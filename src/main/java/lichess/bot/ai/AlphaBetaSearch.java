@@ -0,0 +1,266 @@
+package lichess.bot.ai;
+
+import chesslib.Board;
+import chesslib.move.Move;
+
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Iterative-deepening alpha-beta search (https://en.wikipedia.org/wiki/Alpha%E2%80%93beta_pruning) in negamax form.
+ *
+ * Meant for sharp positions where forced captures leave each side only a few moves, so that the whole tree is
+ * shallow enough to enumerate and forced results are found exactly instead of estimated from playouts. Leaves are
+ * scored with a {@link BoardEvaluator}. Moves are tried best-first: the best move from the transposition table, then
+ * moves that caused cutoffs before (the history heuristic).
+ */
+public class AlphaBetaSearch {
+    // Scores are for the side to move: WIN_SCORE - ply for a win ply moves away, and evaluations well inside that.
+    static final int WIN_SCORE = 1000000;
+    private static final int MAX_PLY = 128;
+    private static final int PROVEN_SCORE = WIN_SCORE - MAX_PLY;
+    private static final int EVALUATION_SCALE = 1000;
+    private static final int TRANSPOSITION_TABLE_BITS = 18;
+    private static final byte EXACT = 0;
+    private static final byte LOWER_BOUND = 1;
+    private static final byte UPPER_BOUND = 2;
+    // How often (in nodes) the search checks the clock.
+    private static final int TIME_CHECK_INTERVAL = 1024;
+
+    private final BoardEvaluator evaluator;
+    private final long[] transpositionKeys = new long[1 << TRANSPOSITION_TABLE_BITS];
+    private final int[] transpositionScores = new int[1 << TRANSPOSITION_TABLE_BITS];
+    private final byte[] transpositionDepths = new byte[1 << TRANSPOSITION_TABLE_BITS];
+    private final byte[] transpositionBounds = new byte[1 << TRANSPOSITION_TABLE_BITS];
+    private final Move[] transpositionMoves = new Move[1 << TRANSPOSITION_TABLE_BITS];
+    // Cutoffs caused by each move, by from * 64 + to.
+    private final int[] history = new int[64 * 64];
+    private Board board;
+    private long deadlineNanos;
+    private long nodes;
+    private boolean aborted;
+    private SearchScheduler.Ticket schedulerTicket = null;
+
+    public AlphaBetaSearch(BoardEvaluator evaluator) {
+        this.evaluator = evaluator;
+    }
+
+    /**
+     * Only search while holding one of the scheduler's cores through the given ticket. Null (the default) searches
+     * whenever asked.
+     */
+    public void setSchedulerTicket(SearchScheduler.Ticket schedulerTicket) {
+        this.schedulerTicket = schedulerTicket;
+    }
+
+    public static class Result {
+        private final Move move;
+        private final int score;
+        private final int depth;
+        private final long nodes;
+
+        Result(Move move, int score, int depth, long nodes) {
+            this.move = move;
+            this.score = score;
+            this.depth = depth;
+            this.nodes = nodes;
+        }
+
+        /**
+         * The best move found, or null if there are no moves or not even the first iteration finished.
+         */
+        public Move getMove() {
+            return move;
+        }
+
+        public int getScore() {
+            return score;
+        }
+
+        /**
+         * Depth in plies of the deepest iteration that finished.
+         */
+        public int getDepth() {
+            return depth;
+        }
+
+        public long getNodes() {
+            return nodes;
+        }
+
+        public boolean isProvenWin() {
+            return score >= PROVEN_SCORE;
+        }
+
+        public boolean isProvenLoss() {
+            return score <= -PROVEN_SCORE;
+        }
+
+        @Override
+        public String toString() {
+            String value = isProvenWin() ? "win in " + (WIN_SCORE - score) : isProvenLoss() ? "loss in " + (WIN_SCORE + score) : "score " + score;
+            return move + " (" + value + ", depth " + depth + ", " + nodes + " nodes)";
+        }
+    }
+
+    /**
+     * Search one ply deeper at a time until the time limit passes, maxDepth is reached or the result is proven.
+     */
+    public Result search(Board position, Duration timeLimit, int maxDepth) {
+        long start = System.currentTimeMillis();
+        deadlineNanos = System.nanoTime() + timeLimit.toNanos();
+        board = position.clone();
+        nodes = 0;
+        aborted = false;
+
+        List<Move> moves = MonteCarloTreeSearch.getAllPossibleMoves(board);
+        Result result = new Result(null, 0, 0, 0);
+        try {
+            if (schedulerTicket != null) {
+                schedulerTicket.acquire();
+            }
+            for (int depth = 1; depth <= Math.min(maxDepth, MAX_PLY) && !moves.isEmpty(); depth++) {
+                Move bestMove = null;
+                int alpha = -WIN_SCORE - 1;
+                for (Move move : moves) {
+                    board.doMove(move);
+                    int score = -negamax(depth - 1, -WIN_SCORE - 1, -alpha, 1);
+                    board.undoMove();
+                    if (aborted) {
+                        break;
+                    }
+                    if (score > alpha) {
+                        alpha = score;
+                        bestMove = move;
+                    }
+                }
+                if (aborted) {
+                    break;
+                }
+
+                result = new Result(bestMove, alpha, depth, nodes);
+                // Search the best move first in the next iteration.
+                moves.remove(bestMove);
+                moves.add(0, bestMove);
+                if (result.isProvenWin() || result.isProvenLoss()) {
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt(); // Stopped while waiting for a core
+        } finally {
+            if (schedulerTicket != null) {
+                schedulerTicket.release();
+            }
+        }
+
+        System.out.println("Alpha-beta search found " + result + " in " + (System.currentTimeMillis() - start) + "ms");
+        return result;
+    }
+
+    private int negamax(int depth, int alpha, int beta, int ply) {
+        if (++nodes % TIME_CHECK_INTERVAL == 0 && mustStop()) {
+            aborted = true;
+        }
+        if (aborted) {
+            return 0;
+        }
+
+        switch (TerminalClassifier.classify(board)) {
+            case WIN:
+                return WIN_SCORE - ply;
+            case LOSS:
+                return ply - WIN_SCORE;
+            case DRAW:
+                return 0;
+        }
+        if (depth <= 0 || ply >= MAX_PLY) {
+            return evaluate();
+        }
+
+        long key = ZobristHash.hash(board);
+        int slot = (int) (key ^ key >>> 32) & ((1 << TRANSPOSITION_TABLE_BITS) - 1);
+        Move transpositionMove = null;
+        if (transpositionKeys[slot] == key) {
+            transpositionMove = transpositionMoves[slot];
+            if (transpositionDepths[slot] >= depth) {
+                int score = fromTableScore(transpositionScores[slot], ply);
+                byte bound = transpositionBounds[slot];
+                if (bound == EXACT || (bound == LOWER_BOUND && score >= beta) || (bound == UPPER_BOUND && score <= alpha)) {
+                    return score;
+                }
+            }
+        }
+
+        List<Move> moves = MonteCarloTreeSearch.getAllPossibleMoves(board);
+        orderMoves(moves, transpositionMove);
+        int originalAlpha = alpha;
+        int bestScore = -WIN_SCORE - 1;
+        Move bestMove = null;
+        for (Move move : moves) {
+            board.doMove(move);
+            int score = -negamax(depth - 1, -beta, -alpha, ply + 1);
+            board.undoMove();
+            if (aborted) {
+                return 0;
+            }
+
+            if (score > bestScore) {
+                bestScore = score;
+                bestMove = move;
+            }
+            if (score > alpha) {
+                alpha = score;
+            }
+            if (alpha >= beta) {
+                history[historyIndex(move)] += depth * depth;
+                break;
+            }
+        }
+
+        transpositionKeys[slot] = key;
+        transpositionScores[slot] = toTableScore(bestScore, ply);
+        transpositionDepths[slot] = (byte) depth;
+        transpositionBounds[slot] = bestScore <= originalAlpha ? UPPER_BOUND : bestScore >= beta ? LOWER_BOUND : EXACT;
+        transpositionMoves[slot] = bestMove;
+        return bestScore;
+    }
+
+    /**
+     * Whether the time is up or the thread was interrupted. Hands the core on first if the scheduler asks for it.
+     */
+    private boolean mustStop() {
+        if (schedulerTicket != null) {
+            try {
+                schedulerTicket.checkpoint();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt(); // Stopped while waiting for a core
+            }
+        }
+        return System.nanoTime() - deadlineNanos > 0 || Thread.currentThread().isInterrupted();
+    }
+
+    private int evaluate() {
+        double winProbability = evaluator.winProbability(board, board.getSideToMove());
+        return (int) Math.round((2 * winProbability - 1) * EVALUATION_SCALE);
+    }
+
+    private void orderMoves(List<Move> moves, Move first) {
+        moves.sort(Comparator.comparingInt((Move move) -> move.equals(first) ? Integer.MIN_VALUE : -history[historyIndex(move)]));
+    }
+
+    private static int historyIndex(Move move) {
+        return move.getFrom().ordinal() * 64 + move.getTo().ordinal();
+    }
+
+    // Wins are stored as distances from the stored position rather than from the root, so that they stay right when
+    // the position is reached at another ply.
+    private static int toTableScore(int score, int ply) {
+        return score >= PROVEN_SCORE ? score + ply : score <= -PROVEN_SCORE ? score - ply : score;
+    }
+
+    private static int fromTableScore(int score, int ply) {
+        return score >= PROVEN_SCORE ? score - ply : score <= -PROVEN_SCORE ? score + ply : score;
+    }
+}
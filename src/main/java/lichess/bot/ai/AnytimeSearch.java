@@ -0,0 +1,109 @@
+package lichess.bot.ai;
+
+import chesslib.move.Move;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+/**
+ * Runs {@link MonteCarloTreeSearch#findBestMove(Duration, long)} on a background thread, so the caller can watch its
+ * progress through periodic {@link SearchSnapshot}s and stop it at any moment to collect the best move so far.
+ */
+public class AnytimeSearch {
+    private static final ScheduledExecutorService SNAPSHOT_PUBLISHER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "kamikaze-search-snapshots");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final MonteCarloTreeSearch mcts;
+    private final CompletableFuture<Move> result = new CompletableFuture<>();
+    private final List<ScheduledFuture<?>> subscriptions = new ArrayList<>();
+    private final List<Consumer<SearchSnapshot>> subscribers = new ArrayList<>();
+    private Thread searchThread;
+
+    private AnytimeSearch(MonteCarloTreeSearch mcts) {
+        this.mcts = mcts;
+    }
+
+    /**
+     * Start searching. The tree must not be used from any other thread until the search is done, apart from taking
+     * snapshots.
+     */
+    public static AnytimeSearch start(MonteCarloTreeSearch mcts, Duration timeLimit, long searchLimit) {
+        AnytimeSearch search = new AnytimeSearch(mcts);
+        search.searchThread = new Thread(() -> search.run(timeLimit, searchLimit), "kamikaze-search");
+        search.searchThread.setDaemon(true);
+        search.searchThread.start();
+        return search;
+    }
+
+    private void run(Duration timeLimit, long searchLimit) {
+        try {
+            result.complete(mcts.findBestMove(timeLimit, searchLimit));
+        } catch (Throwable t) {
+            result.completeExceptionally(t);
+        } finally {
+            publishFinalSnapshot();
+        }
+    }
+
+    /**
+     * Receive a snapshot every period while the search runs, and a final one when it finishes.
+     */
+    public synchronized void subscribe(Consumer<SearchSnapshot> listener, Duration period) {
+        if (result.isDone()) {
+            listener.accept(snapshot());
+            return;
+        }
+
+        subscribers.add(listener);
+        long periodMillis = Math.max(1, period.toMillis());
+        subscriptions.add(SNAPSHOT_PUBLISHER.scheduleAtFixedRate(() -> listener.accept(snapshot()), periodMillis, periodMillis, TimeUnit.MILLISECONDS));
+    }
+
+    private synchronized void publishFinalSnapshot() {
+        for (ScheduledFuture<?> subscription : subscriptions) {
+            subscription.cancel(false);
+        }
+        SearchSnapshot finalSnapshot = snapshot();
+        for (Consumer<SearchSnapshot> subscriber : subscribers) {
+            subscriber.accept(finalSnapshot);
+        }
+        subscriptions.clear();
+        subscribers.clear();
+    }
+
+    public SearchSnapshot snapshot() {
+        return mcts.snapshot();
+    }
+
+    /**
+     * Ask the search to stop after its current iteration. The best move so far becomes the result.
+     */
+    public void stop() {
+        searchThread.interrupt();
+    }
+
+    public boolean isDone() {
+        return result.isDone();
+    }
+
+    /**
+     * Wait for the search to finish (or be stopped) and return the move it chose.
+     */
+    public Move awaitResult() {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            stop();
+            Thread.currentThread().interrupt();
+            return result.getNow(null);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Search failed", e.getCause());
+        }
+    }
+}
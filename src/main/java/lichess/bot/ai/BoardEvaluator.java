@@ -4,5 +4,16 @@ import chesslib.Board;
 import chesslib.Side;
 
 public interface BoardEvaluator {
+    /**
+     * Score the board for mySide, where higher is better and 1 means both sides are even.
+     */
     double evaluate(Board board, Side mySide);
+
+    /**
+     * Estimated chance of mySide winning from this board, between 0 and 1. Treats the evaluation as odds by default.
+     */
+    default double winProbability(Board board, Side mySide) {
+        double odds = evaluate(board, mySide);
+        return odds / (1 + odds);
+    }
 }
@@ -0,0 +1,292 @@
+package lichess.bot.ai;
+
+import chesslib.Board;
+import chesslib.move.Move;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Optional;
+
+/**
+ * The opening book as a flat file that is memory-mapped rather than decoded into {@link OpeningBook.BookNode}s, see
+ * {@link OpeningBookConverter}. Opening it is instant and costs no heap, and bots mapping the same file share its
+ * pages. Nodes are addressed by index, the root being node 0. Safe to share between threads and games.
+ *
+ * Layout, big-endian: a header of {@link #MAGIC}, {@link #VERSION}, the number of nodes (int) and the number of index
+ * slots (int), then a {@value #RECORD_BYTES} byte record per node in breadth-first order, so that the children of a
+ * node are consecutive:
+ * <pre>
+ * short move, as {@link MoveCodec}
+ * byte  en passant square as given in the book
+ * byte  number of children
+ * int   proof number
+ * int   disproof number
+ * float ratio, as computed by OpeningBook
+ * int   index of the first child
+ * int   index of the best child, or NO_NODE
+ * </pre>
+ * Then the position index, an open-addressing hash table with linear probing: per slot the {@link ZobristHash} key of
+ * a position (long) and its node (int), or NO_NODE for an empty slot. Where lines transpose, the most analysed node
+ * (the one with the largest subtree) is indexed, as in {@link OpeningBook}.
+ */
+public final class FlatOpeningBook {
+    public static final int NO_NODE = -1;
+    static final int MAGIC = 0x4B5A4F42; // "KZOB"
+    static final int VERSION = 3;
+    static final int RECORD_BYTES = 24;
+    private static final int HEADER_BYTES = 16;
+    private static final int INDEX_SLOT_BYTES = 12;
+    private static final int CHILD_COUNT = 3;
+    private static final int PROOF = 4;
+    private static final int DISPROOF = 8;
+    private static final int RATIO = 12;
+    private static final int FIRST_CHILD = 16;
+    private static final int BEST_CHILD = 20;
+
+    private final MappedByteBuffer buffer;
+    private final int size;
+    private final int indexSlots;
+    private final int indexOffset;
+
+    private FlatOpeningBook(MappedByteBuffer buffer, int size, int indexSlots) {
+        this.buffer = buffer;
+        this.size = size;
+        this.indexSlots = indexSlots;
+        this.indexOffset = HEADER_BYTES + size * RECORD_BYTES;
+    }
+
+    public static FlatOpeningBook open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("Not a flat opening book (version " + VERSION + "): " + file);
+            }
+            int size = buffer.getInt(8);
+            int indexSlots = buffer.getInt(12);
+            if (buffer.capacity() != HEADER_BYTES + (long) size * RECORD_BYTES + (long) indexSlots * INDEX_SLOT_BYTES
+                    || Integer.bitCount(indexSlots) != 1) {
+                throw new IOException("Flat opening book is truncated: " + file);
+            }
+            System.out.println("Mapped opening book of " + size + " nodes from " + file);
+            return new FlatOpeningBook(buffer, size, indexSlots);
+        }
+    }
+
+    /**
+     * Write the book below root through a temporary file, so that a book is either complete or missing. Books of up
+     * to about 40 million nodes fit in one mapping.
+     */
+    static void write(OpeningBook.BookNode root, Path file) throws IOException {
+        int size = Math.toIntExact(root.size);
+        int indexSlots = Integer.highestOneBit(Math.max(1, size * 3 / 2)) * 2;
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(size);
+            out.writeInt(indexSlots);
+
+            // Nodes leave the queue in index order, so the next free index is where the children of a node go.
+            ArrayDeque<OpeningBook.BookNode> queue = new ArrayDeque<>();
+            queue.add(root);
+            int nextIndex = 1;
+            while (!queue.isEmpty()) {
+                OpeningBook.BookNode node = queue.poll();
+                int bestChild = NO_NODE;
+                double bestChildRatio = 0;
+                for (int i = 0; i < node.children.length; i++) {
+                    if (node.children[i].ratio > bestChildRatio) {
+                        bestChildRatio = node.children[i].ratio;
+                        bestChild = nextIndex + i;
+                    }
+                    queue.add(node.children[i]);
+                }
+
+                out.writeShort(MoveCodec.encode(node.move));
+                out.writeByte(node.enPassantSquare);
+                out.writeByte(node.children.length);
+                out.writeInt(node.proof);
+                out.writeInt(node.disproof);
+                out.writeFloat((float) node.ratio);
+                out.writeInt(nextIndex);
+                out.writeInt(bestChild);
+                nextIndex += node.children.length;
+            }
+        }
+
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long recordsEnd = HEADER_BYTES + (long) size * RECORD_BYTES;
+            FlatOpeningBook records = new FlatOpeningBook(channel.map(FileChannel.MapMode.READ_ONLY, 0, recordsEnd), size, indexSlots);
+            ByteBuffer index = records.indexPositions();
+            while (index.hasRemaining()) {
+                channel.write(index, recordsEnd + index.position());
+            }
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Play through the book depth-first and build the position index.
+     */
+    private ByteBuffer indexPositions() {
+        long[] keys = new long[indexSlots];
+        int[] nodes = new int[indexSlots];
+        Arrays.fill(nodes, NO_NODE);
+
+        // Children come after their parent, so going backwards every subtree is complete before its parent is summed.
+        int[] subtreeSizes = new int[size];
+        for (int node = size - 1; node >= 0; node--) {
+            subtreeSizes[node] = 1;
+            int first = getFirstChild(node);
+            for (int child = first; child < first + getChildCount(node); child++) {
+                subtreeSizes[node] += subtreeSizes[child];
+            }
+        }
+
+        Board board = new Board();
+        index(keys, nodes, subtreeSizes, ZobristHash.hash(board), getRoot());
+        int[] path = new int[64];
+        int[] next = new int[64];
+        int depth = 0;
+        path[0] = getRoot();
+        while (depth >= 0) {
+            int node = path[depth];
+            if (next[depth] == getChildCount(node)) {
+                if (depth > 0) {
+                    board.undoMove();
+                }
+                depth--;
+                continue;
+            }
+
+            int child = getFirstChild(node) + next[depth]++;
+            if (!OpeningBook.playBookMove(board, getMove(child))) {
+                continue; // Not a move in this position, so neither is anything below it
+            }
+            index(keys, nodes, subtreeSizes, ZobristHash.hash(board), child);
+            depth++;
+            if (depth == path.length) {
+                path = Arrays.copyOf(path, depth * 2);
+                next = Arrays.copyOf(next, depth * 2);
+            }
+            path[depth] = child;
+            next[depth] = 0;
+        }
+
+        ByteBuffer index = ByteBuffer.allocate(indexSlots * INDEX_SLOT_BYTES);
+        for (int slot = 0; slot < indexSlots; slot++) {
+            index.putLong(keys[slot]).putInt(nodes[slot]);
+        }
+        index.flip();
+        return index;
+    }
+
+    private static void index(long[] keys, int[] nodes, int[] subtreeSizes, long key, int node) {
+        int slot = slotOf(key, keys.length);
+        while (nodes[slot] != NO_NODE && keys[slot] != key) {
+            slot = (slot + 1) & (keys.length - 1);
+        }
+        if (nodes[slot] == NO_NODE || subtreeSizes[nodes[slot]] < subtreeSizes[node]) {
+            keys[slot] = key;
+            nodes[slot] = node;
+        }
+    }
+
+    private static int slotOf(long key, int slots) {
+        return (int) (key ^ key >>> 32) & (slots - 1);
+    }
+
+    /**
+     * The node for the position on the board, however the game got there, or NO_NODE if it is not in the book.
+     */
+    public int findNode(Board board) {
+        long key = ZobristHash.hash(board);
+        for (int slot = slotOf(key, indexSlots); ; slot = (slot + 1) & (indexSlots - 1)) {
+            int offset = indexOffset + slot * INDEX_SLOT_BYTES;
+            int node = buffer.getInt(offset + 8);
+            if (node == NO_NODE || buffer.getLong(offset) == key) {
+                return node;
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * The root node, or NO_NODE if the book is empty.
+     */
+    public int getRoot() {
+        return size > 0 ? 0 : NO_NODE;
+    }
+
+    /**
+     * The move that leads to the node.
+     */
+    public Move getMove(int node) {
+        return MoveCodec.decode(buffer.getShort(offset(node)));
+    }
+
+    public int getChildCount(int node) {
+        return buffer.get(offset(node) + CHILD_COUNT) & 0xFF;
+    }
+
+    public int getFirstChild(int node) {
+        return buffer.getInt(offset(node) + FIRST_CHILD);
+    }
+
+    public int getProof(int node) {
+        return buffer.getInt(offset(node) + PROOF);
+    }
+
+    public int getDisproof(int node) {
+        return buffer.getInt(offset(node) + DISPROOF);
+    }
+
+    public double getRatio(int node) {
+        return buffer.getFloat(offset(node) + RATIO);
+    }
+
+    /**
+     * The child reached with move, or NO_NODE if it is not in the book (or node is NO_NODE).
+     */
+    public int child(int node, Move move) {
+        if (node == NO_NODE) {
+            return NO_NODE;
+        }
+        short encoded = MoveCodec.encode(move);
+        int first = getFirstChild(node);
+        for (int child = first; child < first + getChildCount(node); child++) {
+            if (buffer.getShort(offset(child)) == encoded) {
+                return child;
+            }
+        }
+        return NO_NODE;
+    }
+
+    /**
+     * The move to the child with the best ratio, as chosen by {@link OpeningBook#findBestMove}.
+     */
+    public Optional<Move> findBestMove(int node) {
+        if (node == NO_NODE) {
+            return Optional.empty();
+        }
+        int bestChild = buffer.getInt(offset(node) + BEST_CHILD);
+        return bestChild == NO_NODE ? Optional.empty() : Optional.of(getMove(bestChild));
+    }
+
+    private static int offset(int node) {
+        return HEADER_BYTES + node * RECORD_BYTES;
+    }
+}
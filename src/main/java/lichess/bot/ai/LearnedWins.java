@@ -0,0 +1,212 @@
+package lichess.bot.ai;
+
+import chesslib.Board;
+import chesslib.move.Move;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Positions that searches have solved, kept across games and restarts, so that a position solved once costs nothing
+ * the next time any game reaches it. Safe to share between threads and games.
+ *
+ * Positions are keyed by {@link ZobristHash}. The file starts with {@link #MAGIC} and {@link #VERSION}, followed by
+ * fixed-width records that are only ever appended: the key (long) and the winning move (short, as
+ * {@link MoveCodec}), or -1 for a position the side to move loses. A record cut short by a crash
+ * is dropped when the file is next opened. The records are loaded into an open-addressing hash table.
+ *
+ * Positions are learned on search threads, which are interrupted on every move, and a FileChannel used by an
+ * interrupted thread closes for good. So new records go into the table at once but are written by a thread of their
+ * own.
+ */
+public class LearnedWins implements Closeable {
+    static final int MAGIC = 0x4B5A4C57; // "KZLW"
+    static final int VERSION = 1;
+    private static final int HEADER_BYTES = 8;
+    private static final int RECORD_BYTES = 10;
+    private static final short LOSS = -1;
+    private static final int INITIAL_CAPACITY = 1 << 12;
+
+    private final FileChannel channel;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "kamikaze-learned-wins");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private long end;
+    // Open addressing with linear probing. Key 0 marks an empty slot, so a position hashing to 0 is never stored.
+    private long[] keys = new long[INITIAL_CAPACITY];
+    private short[] moves = new short[INITIAL_CAPACITY];
+    private int size = 0;
+
+    /**
+     * Open the file, creating it if needed, and load every position in it.
+     */
+    public LearnedWins(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (channel.size() < HEADER_BYTES) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(MAGIC).putInt(VERSION).flip();
+            channel.write(header, 0);
+            end = HEADER_BYTES;
+        } else {
+            load();
+        }
+        System.out.println("Loaded " + size + " learned positions from " + file);
+    }
+
+    private void load() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        channel.read(header, 0);
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            throw new IOException("Not a learned wins file (version " + VERSION + ")");
+        }
+
+        long records = (channel.size() - HEADER_BYTES) / RECORD_BYTES;
+        end = HEADER_BYTES + records * RECORD_BYTES;
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_BYTES * 4096);
+        for (long position = HEADER_BYTES; position < end; ) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException("Learned wins file shrank while loading");
+                }
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                put(buffer.getLong(), buffer.getShort());
+            }
+            position += buffer.limit();
+        }
+    }
+
+    /**
+     * A move that wins the position by force, or null if none has been learned.
+     */
+    public Move findWinningMove(Board board) {
+        short move = lookup(ZobristHash.hash(board));
+        if (move == 0 || move == LOSS) {
+            return null;
+        }
+        return MoveCodec.decode(move);
+    }
+
+    /**
+     * Whether the side to move is known to lose the position against best play.
+     */
+    public boolean isLost(Board board) {
+        return lookup(ZobristHash.hash(board)) == LOSS;
+    }
+
+    public void recordWin(Board board, Move winningMove) {
+        record(ZobristHash.hash(board), MoveCodec.encode(winningMove));
+    }
+
+    public void recordLoss(Board board) {
+        record(ZobristHash.hash(board), LOSS);
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    private synchronized short lookup(long key) {
+        for (int slot = slotOf(key); keys[slot] != 0; slot = (slot + 1) & (keys.length - 1)) {
+            if (keys[slot] == key) {
+                return moves[slot];
+            }
+        }
+        return 0;
+    }
+
+    private synchronized void record(long key, short move) {
+        if (key == 0 || lookup(key) != 0) {
+            return; // Already learned (positions are solved once and for all)
+        }
+        ByteBuffer record = ByteBuffer.allocate(RECORD_BYTES);
+        record.putLong(key).putShort(move).flip();
+        long position = end;
+        end += RECORD_BYTES;
+        put(key, move);
+        writer.execute(() -> write(record, position));
+    }
+
+    private void write(ByteBuffer record, long position) {
+        try {
+            while (record.hasRemaining()) {
+                channel.write(record, position + record.position());
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void put(long key, short move) {
+        if (key == 0) {
+            return;
+        }
+        if (2 * (size + 1) > keys.length) {
+            resize();
+        }
+        int slot = slotOf(key);
+        while (keys[slot] != 0 && keys[slot] != key) {
+            slot = (slot + 1) & (keys.length - 1);
+        }
+        if (keys[slot] == 0) {
+            size++;
+        }
+        keys[slot] = key;
+        moves[slot] = move;
+    }
+
+    private void resize() {
+        long[] oldKeys = keys;
+        short[] oldMoves = moves;
+        keys = new long[oldKeys.length * 2];
+        moves = new short[oldKeys.length * 2];
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                put(oldKeys[i], oldMoves[i]);
+            }
+        }
+    }
+
+    private int slotOf(long key) {
+        return (int) (key ^ key >>> 32) & (keys.length - 1);
+    }
+
+    /**
+     * Write every position recorded so far and close the file.
+     */
+    @Override
+    public void close() throws IOException {
+        writer.shutdown();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                if (writer.awaitTermination(1, TimeUnit.MINUTES)) {
+                    break;
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        try {
+            channel.force(false);
+            channel.close();
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
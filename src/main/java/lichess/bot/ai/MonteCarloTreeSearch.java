@@ -1,17 +1,18 @@
 package lichess.bot.ai;
 
 import chesslib.Board;
-import chesslib.Piece;
-import chesslib.PieceType;
 import chesslib.Side;
 import chesslib.move.Move;
 import chesslib.move.MoveGenerator;
 import chesslib.move.MoveList;
 
-import java.security.SecureRandom;
+import java.io.IOException;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import java.util.stream.Collectors;
 
 /**
@@ -19,166 +20,644 @@ import java.util.stream.Collectors;
  *
  * Build a tree of possible moves and assign scores to states based on playouts. Expands leaf nodes with a best-first
  * strategy, which means it spends more time evaluating moves that look good (for both sides.)
+ *
+ * Several threads may search the same tree at once: node statistics and subtree sizes are updated atomically, a leaf
+ * is expanded by whichever thread claims it first, and each thread keeps its own record of the moves of its iteration.
+ * Moving the root, seeding priors and changing settings must still happen while no search is running.
  */
 public class MonteCarloTreeSearch {
-    private static final Random RANDOM = new SecureRandom();
     private static final double EXPLORATION_CONSTANT = Math.sqrt(2.0);
     private static final double THREAT_CONSTANT = 1.0;
     private static final int MAX_MOVE_DEPTH = 100;
-
-    private Node root;
-    private Map<Board, Move> forcedSequences = new HashMap<>();
+    // Measured at roughly 900 bytes per node (mostly the cloned Board), rounded up.
+    private static final long ESTIMATED_BYTES_PER_NODE = 1024;
+    // When over budget, prune down to this fraction of it so that pruning doesn't run on every iteration.
+    private static final double PRUNE_TARGET_FRACTION = 0.75;
+    // Number of real visits at which a child's own statistics and its AMAF statistics weigh roughly equally.
+    private static final double RAVE_EQUIVALENCE = 1000;
+    // How many moves below the root reroot looks for the position.
+    private static final int REROOT_SEARCH_DEPTH = 4;
+    // Number of visits an opening book ratio is worth when seeding a child, see seedPriors.
+    private static final long BOOK_PRIOR_VISITS = 20;
+    // Moves are keyed by their MoveCodec form, which fits in 15 bits.
+    private static final int MOVE_KEY_BITS = 15;
+    // How often (in iterations) findBestMove checks whether the best move can still be overtaken.
+    private static final int EARLY_STOP_CHECK_INTERVAL = 100;
+    // Distance of a solved node whose plies to the end of the game are not known, such as one solved by learned wins.
+    private static final int UNKNOWN_DISTANCE = -1;
+    // How often a running search logs its metrics.
+    private static final long METRICS_LOG_INTERVAL_NANOS = Duration.ofSeconds(5).toNanos();
+    // Node statistics pack visits and score into one long as visits * 2^32 + score * SCORE_SCALE, so that a single
+    // atomic add records a result and a single read gives a consistent pair. Good for scores up to +-8 million.
+    private static final double SCORE_SCALE = 256.0;
+    private static final long ONE_VISIT = 1L << 32;
+    private static final AtomicLongFieldUpdater<Node> NODE_STATS = AtomicLongFieldUpdater.newUpdater(Node.class, "stats");
+    private static final AtomicLongFieldUpdater<Node> NODE_SUBTREE_SIZE = AtomicLongFieldUpdater.newUpdater(Node.class, "subtreeSize");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<Node, Map> NODE_CHILDREN = AtomicReferenceFieldUpdater.newUpdater(Node.class, Map.class, "children");
+    // Children of a node while one thread builds them. Empty, so that other threads treat the node as an unexpanded leaf.
+    private static final Map<Move, Node> EXPANDING = Collections.unmodifiableMap(new HashMap<>());
+
+    private final Random random;
+    private volatile Node root;
+    private long maxNodes = Long.MAX_VALUE;
+    private long maxBytes = Runtime.getRuntime().maxMemory() / 4;
+    private SearchMemoryBudget sharedBudget = null;
+    private int playoutCutoffDepth = MAX_MOVE_DEPTH;
+    private BoardEvaluator playoutEvaluator = null;
+    private SearchTraceRecorder traceRecorder = null;
+    private Tablebase tablebase = null;
+    private LearnedWins learnedWins = null;
+    private SearchScheduler.Ticket schedulerTicket = null;
+
+    private final ThreadLocal<Simulation> simulations = ThreadLocal.withInitial(Simulation::new);
+
+    // Progress of the running search, read by snapshot() from other threads.
+    private volatile long searchStartNanos = System.nanoTime();
+    private volatile long searchesDone = 0;
+    private final SearchMetrics metrics = new SearchMetrics();
 
     public MonteCarloTreeSearch(Board initialState) {
+        this(initialState, new XorShiftRandom());
+    }
+
+    /**
+     * @param random source of all randomness in the search. Pass a seeded {@link XorShiftRandom} to make a search with
+     *               a fixed search limit reproducible move for move.
+     */
+    public MonteCarloTreeSearch(Board initialState, Random random) {
+        this.random = random;
         root = new Node(initialState.clone(), null);
     }
 
     private boolean search() {
+        long selectionStart = System.nanoTime();
+        if (root.subtreeSize > nodeBudget()) {
+            pruneTree((long) (nodeBudget() * PRUNE_TARGET_FRACTION));
+        }
+
         // Selection: start from root R and descend down the tree to a leaf node L.
         Node leaf = findExpandableLeafNode(root);
 
-        Node finalNode;
-        Side winner;
-
         if (leaf == null) {
-            System.out.println("No more non-terminal leaf nodes to expand");
+            System.out.println("No more unsolved leaf nodes to expand");
             return true;
         }
 
         // Expansion: unless L ends the game with a win/loss for either player,
         // create one (or more) child nodes and choose node C from one of them.
+        long expansionStart = System.nanoTime();
         createChildNodes(leaf);
-        if (leaf.children.isEmpty()) {
-            System.out.println("No children of this board. Done");
-            return false;
+        if (leaf.children.isEmpty() && leaf.provenValue == ProvenValue.UNKNOWN) {
+            return false; // Another thread collapsed the leaf right after expanding it, select again.
         }
-        Node candidate = (Node) leaf.children.values().toArray()[RANDOM.nextInt(leaf.children.size())];
+        long simulationStart = System.nanoTime();
+        Simulation simulation = simulations.get();
 
-        // Simulation: play a random playout from node C.
-        winner = playout(candidate.board);
-        //System.out.println("Playout from child state of leaf resulted in a win for " + winner);
-        finalNode = candidate;
+        Node finalNode;
+        double whiteScore;
+        if (leaf.provenValue != ProvenValue.UNKNOWN) {
+            // Expanding the leaf solved it (e.g. one of the new children is an immediate win), so there is nothing
+            // left to simulate: back up the proven result instead of a random playout.
+            finalNode = leaf;
+            recordTreeMoves(simulation, finalNode);
+            whiteScore = whiteScoreOf(provenWinner(leaf));
+        } else {
+            List<Node> unsolvedChildren = leaf.children.values().stream().filter(c -> c.provenValue == ProvenValue.UNKNOWN).collect(Collectors.toList());
+            Node candidate = unsolvedChildren.get(random.nextInt(unsolvedChildren.size()));
+
+            // Simulation: play a random playout from node C.
+            finalNode = candidate;
+            recordTreeMoves(simulation, finalNode);
+            int treeMoves = simulation.moveCount;
+            whiteScore = playout(candidate.board, simulation);
+            metrics.recordPlayout(simulation.moveCount - treeMoves);
+        }
+        long backpropagationStart = System.nanoTime();
 
         // Backpropagation: use the result of the playout to update information in the nodes on the path from C to R.
-        boolean forced = finalNode.terminalState;
-        Map<Board, Move> potentialForcedSequence = new HashMap<>();
+        // Every node also updates the All-Moves-As-First statistics of its children: any move its side to move played
+        // later in this iteration counts as if it had been played right away.
+        simulation.iteration++;
+        int depth = 0;
+        for (Node p = finalNode; p != root; p = p.parent) {
+            depth++;
+        }
+        int finalNodeDepth = depth;
+        int nextMoveToMark = simulation.moveCount - 1;
 
         Node n = finalNode;
-        Side mySide = root.board.getSideToMove();
         while (n != null) {
-            if (n.children.size() > 1 && n.board.getSideToMove() != mySide) {
-                forced = false;
-            }
-            if (forced && n != root) {
-                potentialForcedSequence.put(n.parent.board, n.movePlayedToGetToThisState);
-            }
-            n.simulationCount++;
-            if (winner != null) {
-                if (winner == n.board.getSideToMove()) {
-                    n.wins += 1; // Positive score for winning
-                } else {
-                    n.wins -= 1; // Negative score for losing
-                }
-            } else {
-                // Zero score for draws
+            // Positive score for winning, negative for losing and zero for draws
+            NODE_STATS.addAndGet(n, packedResult(n.board.getSideToMove() == Side.WHITE ? whiteScore : -whiteScore));
+
+            for (; nextMoveToMark >= depth; nextMoveToMark--) {
+                simulation.seen[simulation.moves[nextMoveToMark] | (nextMoveToMark & 1) << MOVE_KEY_BITS] = simulation.iteration;
             }
+            updateAmafStatistics(simulation, n, depth & 1, n.board.getSideToMove() == Side.WHITE ? -whiteScore : whiteScore);
 
             // Ensure tree integrity.
             assert n.parent != null || n.equals(root);
 
             n = n.parent;
+            depth--;
+        }
+
+        long end = System.nanoTime();
+        metrics.recordIteration(expansionStart - selectionStart, simulationStart - expansionStart, backpropagationStart - simulationStart, end - backpropagationStart, finalNodeDepth, root.subtreeSize);
+
+        return root.provenValue != ProvenValue.UNKNOWN;
+    }
+
+    /**
+     * Start the move record of this iteration with the moves from the root down to n.
+     */
+    private void recordTreeMoves(Simulation simulation, Node n) {
+        int count = 0;
+        for (Node p = n; p != root; p = p.parent) {
+            count++;
+        }
+        simulation.moveCount = count;
+        simulation.ensureCapacity(count);
+
+        int i = count;
+        for (Node p = n; p != root; p = p.parent) {
+            simulation.moves[--i] = moveKey(p.movePlayedToGetToThisState);
         }
+    }
 
-        if (forced && winner == mySide) {
-            for (Board board : potentialForcedSequence.keySet()) {
-                forcedSequences.put(board, potentialForcedSequence.get(board));
+    /**
+     * @param parity           which of the recorded moves were played by n's side to move
+     * @param childSideScore   result of this iteration for the side to move in n's children
+     */
+    private static void updateAmafStatistics(Simulation simulation, Node n, int parity, double childSideScore) {
+        // amafStats is written after childMoveKeys on expansion and cleared before it on collapse, so read it first.
+        AtomicLongArray amafStats = n.amafStats;
+        int[] childMoveKeys = n.childMoveKeys;
+        if (amafStats == null || childMoveKeys == null) {
+            return; // Not expanded
+        }
+        int parityBit = parity << MOVE_KEY_BITS;
+        for (int i = 0; i < childMoveKeys.length; i++) {
+            if (simulation.seen[childMoveKeys[i] | parityBit] == simulation.iteration) {
+                amafStats.addAndGet(i, packedResult(childSideScore));
             }
         }
+    }
 
-        return false;
+    private static long packedResult(double score) {
+        return ONE_VISIT + Math.round(score * SCORE_SCALE);
+    }
+
+    private static long visitsOf(long packedStats) {
+        return (packedStats - (int) packedStats) >> 32;
+    }
+
+    private static double winsOf(long packedStats) {
+        return (int) packedStats / SCORE_SCALE;
     }
 
     /**
-     * Play randomly to the end of the game from state and return the winner (or null if draw.)
+     * Winrate for the side to move in the node these statistics belong to.
      */
-    private Side playout(Board fromState) {
-        int movesTested = 0;
-        Board state = fromState.clone();
-        while (!isWinningState(state)) {
-            makeRandomMove(state);
-            if (gameIsDraw(state)) {
+    private static double winrateOf(long packedStats) {
+        return (winsOf(packedStats) + visitsOf(packedStats)) / (double) (visitsOf(packedStats) * 2);
+    }
+
+    private static int moveKey(Move move) {
+        return MoveCodec.encode(move);
+    }
+
+    /**
+     * The side that wins from a solved node, or null if the node is a proven draw.
+     */
+    private static Side provenWinner(Node n) {
+        switch (n.provenValue) {
+            case WIN:
+                return n.board.getSideToMove();
+            case LOSS:
+                return n.board.getSideToMove().flip();
+            default:
                 return null;
+        }
+    }
+
+    /**
+     * MCTS-Solver backup: a node is a proven win if any child is a proven loss for the opponent, a proven loss if every
+     * child is a proven win for the opponent, and a proven draw if every child is solved and the best of them is a draw.
+     * Walks up from n for as long as nodes keep becoming solved.
+     */
+    private void propagateProvenValues(Node n) {
+        while (n != null && n.provenValue == ProvenValue.UNKNOWN) {
+            ProvenValue value = computeProvenValue(n);
+            if (value == ProvenValue.UNKNOWN) {
+                return;
             }
-            movesTested++;
-            if (movesTested > MAX_MOVE_DEPTH) {
-                return null; // Assume draw if it goes this long.
-            }
+            n.provenDistance = provenDistanceOf(n, value);
+            n.provenValue = value;
+            learn(n);
+            n = n.parent;
         }
+    }
 
-        return state.getSideToMove();
+    /**
+     * Remember a node that was just solved as a win or a loss in the learned wins, if there are any.
+     */
+    private void learn(Node n) {
+        if (learnedWins == null) {
+            return;
+        }
+        if (n.provenValue == ProvenValue.LOSS) {
+            learnedWins.recordLoss(n.board);
+        } else if (n.provenValue == ProvenValue.WIN) {
+            for (Node child : n.children.values()) {
+                if (child.provenValue == ProvenValue.LOSS) {
+                    learnedWins.recordWin(n.board, child.movePlayedToGetToThisState);
+                    break;
+                }
+            }
+        }
     }
 
-    private void makeRandomMove(Board state) {
-        List<Move> allPossibleMoves = getAllPossibleMoves(state);
-        state.doMove(allPossibleMoves.get(RANDOM.nextInt(allPossibleMoves.size())));
+    private ProvenValue learnedValueOf(Board state) {
+        if (learnedWins == null) {
+            return ProvenValue.UNKNOWN;
+        }
+        if (learnedWins.isLost(state)) {
+            return ProvenValue.LOSS;
+        }
+        return learnedWins.findWinningMove(state) != null ? ProvenValue.WIN : ProvenValue.UNKNOWN;
     }
 
-    static boolean gameIsDraw(Board state) {
-        Board flipState = state.clone();
-        flipState.setSideToMove(state.getSideToMove().flip());
+    /**
+     * Plies to the end of the game from a node being solved with the given value, when its children tell: the fastest
+     * win through a lost child, or the slowest loss through the won children.
+     */
+    private static int provenDistanceOf(Node n, ProvenValue value) {
+        int distance = UNKNOWN_DISTANCE;
+        for (Node child : n.children.values()) {
+            if (value == ProvenValue.WIN && child.provenValue == ProvenValue.LOSS && child.provenDistance != UNKNOWN_DISTANCE) {
+                distance = distance == UNKNOWN_DISTANCE ? child.provenDistance + 1 : Math.min(distance, child.provenDistance + 1);
+            } else if (value == ProvenValue.LOSS) {
+                if (child.provenDistance == UNKNOWN_DISTANCE) {
+                    return UNKNOWN_DISTANCE;
+                }
+                distance = Math.max(distance, child.provenDistance + 1);
+            }
+        }
+        return distance;
+    }
 
-        List<Move> allPossibleMoves = getAllPossibleMoves(state);
-        if (allPossibleMoves.size() == 0) {
-            return false; // Someone can't move, it's game over
+    private static ProvenValue computeProvenValue(Node n) {
+        if (n.children.isEmpty()) {
+            return ProvenValue.UNKNOWN; // Not expanded yet
         }
 
-        for (Move possibleMove : allPossibleMoves) {
-            Piece pieceToMove = state.getPiece(possibleMove.getFrom());
-            if (pieceToMove.getPieceType() != PieceType.BISHOP) {
-                return false; // As long as you can move a non-bishop piece, it's not a draw (yet)
+        boolean allChildrenSolved = true;
+        boolean drawAvailable = false;
+        for (Node child : n.children.values()) {
+            switch (child.provenValue) {
+                case LOSS:
+                    return ProvenValue.WIN; // We can move into a position the opponent has lost.
+                case DRAW:
+                    drawAvailable = true;
+                    break;
+                case UNKNOWN:
+                    allChildrenSolved = false;
+                    break;
+                default:
+                    break;
             }
         }
 
-        // Now simulate the position for the other player
-        List<Move> allPossibleFlippedMoves = getAllPossibleMoves(flipState);
-        for (Move possibleMove : allPossibleFlippedMoves) {
-            Piece pieceToMove = state.getPiece(possibleMove.getFrom());
-            if (pieceToMove.getPieceType() != PieceType.BISHOP) {
-                return false; // As long as you can move a non-bishop piece, it's not a draw (yet)
+        if (!allChildrenSolved) {
+            return ProvenValue.UNKNOWN;
+        }
+        return drawAvailable ? ProvenValue.DRAW : ProvenValue.LOSS;
+    }
+
+    /**
+     * Play randomly from state, either to the end of the game or until the playout cutoff, and return the result for
+     * white: 1 for a win, -1 for a loss, 0 for a draw, or in between for a position scored by the playout evaluator.
+     */
+    private double playout(Board fromState, Simulation simulation) {
+        int movesTested = 0;
+        Board state = fromState.clone();
+        while (true) {
+            switch (TerminalClassifier.classify(state)) {
+                case WIN:
+                    return whiteScoreOf(state.getSideToMove());
+                case LOSS:
+                    return whiteScoreOf(state.getSideToMove().flip());
+                case DRAW:
+                    return 0;
+            }
+            if (movesTested > 0) {
+                Tablebase.Entry tablebaseEntry = probeTablebase(state);
+                if (tablebaseEntry != null) {
+                    return whiteScoreOf(tablebaseWinner(state, tablebaseEntry));
+                }
             }
+            if (movesTested >= playoutCutoffDepth) {
+                if (playoutEvaluator == null) {
+                    return 0; // Assume draw if it goes this long.
+                }
+                return 2 * playoutEvaluator.winProbability(state, Side.WHITE) - 1;
+            }
+            simulation.record(moveKey(makeRandomMove(state)));
+            movesTested++;
+        }
+    }
+
+    /**
+     * The tablebase entry of the position for the side to move, or null if there is none.
+     */
+    private Tablebase.Entry probeTablebase(Board state) {
+        if (tablebase == null || !tablebase.mayContain(state)) {
+            return null;
         }
+        Tablebase.Entry entry = tablebase.probe(state);
+        metrics.recordCacheLookup(entry != null);
+        return entry;
+    }
 
-        // Now we know we only have bishop moves for both sides. It's only a draw if there's exactly 1 bishop on each side
-        if (state.getPieceLocation(Piece.WHITE_BISHOP).size() != 1) {
-            return false;
+    private static Side tablebaseWinner(Board state, Tablebase.Entry entry) {
+        switch (entry.getResult()) {
+            case WIN:
+                return state.getSideToMove();
+            case LOSS:
+                return state.getSideToMove().flip();
+            default:
+                return null;
         }
-        if (state.getPieceLocation(Piece.BLACK_BISHOP).size() != 1) {
-            return false;
+    }
+
+    private static double whiteScoreOf(Side winner) {
+        if (winner == null) {
+            return 0;
         }
+        return winner == Side.WHITE ? 1 : -1;
+    }
 
-        // And they're on different colored squares.
-        return state.getPieceLocation(Piece.WHITE_BISHOP).get(0).isLightSquare() != state.getPieceLocation(Piece.BLACK_BISHOP).get(0).isLightSquare();
+    private Move makeRandomMove(Board state) {
+        List<Move> allPossibleMoves = getAllPossibleMoves(state);
+        Move move = allPossibleMoves.get(random.nextInt(allPossibleMoves.size()));
+        state.doMove(move);
+        return move;
     }
 
     private void createChildNodes(Node n) {
+        // Claim the leaf, so that when several threads select it only one of them expands it. The others wait for it.
+        Map<Move, Node> unexpanded = n.children;
+        if (!unexpanded.isEmpty() || unexpanded == EXPANDING || !NODE_CHILDREN.compareAndSet(n, unexpanded, EXPANDING)) {
+            while (n.children == EXPANDING) {
+                Thread.yield();
+            }
+            return;
+        }
+
         List<Move> possibleMoves = getAllPossibleMoves(n.board);
+        if (possibleMoves.isEmpty()) {
+            n.provenDistance = 0;
+            n.provenValue = ProvenValue.WIN; // Side to move cannot move, which wins the game
+            n.children = unexpanded;
+            propagateProvenValues(n.parent);
+            return;
+        }
+
+        // Build the children aside and publish them in one write, so that other threads never see a partial map.
+        Map<Move, Node> children = new HashMap<>();
         for (Move move : possibleMoves) {
             Board newState = n.board.clone();
             newState.doMove(move);
             Node newNode = new Node(newState, n);
-            if (gameIsDraw(newState) || isWinningState(newState)) {
-                newNode.terminalState = true;
-                newNode.simulationCount = 1;
-                newNode.wins = 1;
+            TerminalClassifier.Outcome outcome = TerminalClassifier.classify(newState);
+            ProvenValue learnedValue = outcome == TerminalClassifier.Outcome.ONGOING ? learnedValueOf(newState) : ProvenValue.UNKNOWN;
+            if (outcome == TerminalClassifier.Outcome.WIN) {
+                newNode.provenValue = ProvenValue.WIN;
+                newNode.provenDistance = 0;
+                newNode.stats = packedResult(1);
+            } else if (outcome == TerminalClassifier.Outcome.LOSS) {
+                newNode.provenValue = ProvenValue.LOSS;
+                newNode.provenDistance = 0;
+                newNode.stats = packedResult(-1);
+            } else if (outcome == TerminalClassifier.Outcome.DRAW) {
+                newNode.provenValue = ProvenValue.DRAW;
+                newNode.stats = packedResult(0);
+            } else if (learnedValue != ProvenValue.UNKNOWN) {
+                // Positions solved by earlier searches are taken as they are.
+                newNode.provenValue = learnedValue;
+                newNode.stats = packedResult(newNode.provenValue == ProvenValue.WIN ? 1 : -1);
+            } else {
+                // Endgames in the tablebase are solved on the spot, as if the game ended here.
+                Tablebase.Entry tablebaseEntry = probeTablebase(newState);
+                if (tablebaseEntry != null) {
+                    switch (tablebaseEntry.getResult()) {
+                        case WIN:
+                            newNode.provenValue = ProvenValue.WIN;
+                            newNode.provenDistance = tablebaseEntry.getDistance();
+                            newNode.stats = packedResult(1);
+                            break;
+                        case LOSS:
+                            newNode.provenValue = ProvenValue.LOSS;
+                            newNode.provenDistance = tablebaseEntry.getDistance();
+                            newNode.stats = packedResult(-1);
+                            break;
+                        default:
+                            newNode.provenValue = ProvenValue.DRAW;
+                            newNode.stats = packedResult(0);
+                            break;
+                    }
+                }
             }
             newNode.movePlayedToGetToThisState = move;
             newNode.numberOfThreats = getNumberOfThreats(newState);
-            n.children.put(move, newNode);
+            children.put(move, newNode);
+        }
+
+        int[] childMoveKeys = new int[children.size()];
+        int childIndex = 0;
+        for (Node child : children.values()) {
+            child.indexInParent = childIndex;
+            childMoveKeys[childIndex] = moveKey(child.movePlayedToGetToThisState);
+            childIndex++;
+        }
+        n.childMoveKeys = childMoveKeys;
+        n.amafStats = new AtomicLongArray(children.size());
+        n.children = children;
+
+        for (Node ancestor = n; ancestor != null; ancestor = ancestor.parent) {
+            NODE_SUBTREE_SIZE.addAndGet(ancestor, children.size());
         }
 
-        for (Node c : n.children.values()) {
+        for (Node c : children.values()) {
             assert c.board.getSideToMove() == n.board.getSideToMove().flip();
         }
+
+        propagateProvenValues(n);
+    }
+
+    /**
+     * Stop playouts after the given number of random moves and score the position reached with the evaluator instead
+     * of playing on. Without an evaluator (the default, after {@value #MAX_MOVE_DEPTH} moves) a cut off playout counts
+     * as a draw.
+     */
+    public void setPlayoutCutoff(int depth, BoardEvaluator evaluator) {
+        this.playoutCutoffDepth = depth;
+        this.playoutEvaluator = evaluator;
+    }
+
+    /**
+     * Record every findBestMove to the given recorder, or stop recording if it is null (the default).
+     */
+    public void setTraceRecorder(SearchTraceRecorder traceRecorder) {
+        this.traceRecorder = traceRecorder;
+    }
+
+    /**
+     * Treat positions found in the tablebase as solved, and end playouts as soon as they reach one. Null (the default)
+     * turns this off.
+     */
+    public void setTablebase(Tablebase tablebase) {
+        this.tablebase = tablebase;
+    }
+
+    /**
+     * Treat positions in the learned wins as solved, and add every position this search solves to them. Null (the
+     * default) turns this off.
+     */
+    public void setLearnedWins(LearnedWins learnedWins) {
+        this.learnedWins = learnedWins;
+    }
+
+    /**
+     * Only search while holding one of the scheduler's cores through the given ticket. Null (the default) searches
+     * whenever asked.
+     */
+    public void setSchedulerTicket(SearchScheduler.Ticket schedulerTicket) {
+        this.schedulerTicket = schedulerTicket;
+    }
+
+    /**
+     * Start the children of the node that path leads to from the root as if each had already been visited
+     * {@value #BOOK_PRIOR_VISITS} times, scoring as the opening book ratio of its move says: a ratio r gives the side
+     * choosing the move a winrate of r / (1 + r). Children that have been visited already, and moves without a ratio,
+     * are left as they are. Nodes along the path are expanded as needed, and nothing is seeded if the path leaves the
+     * tree. Must not be called while the tree is being searched.
+     */
+    public void seedPriors(List<Move> path, Map<Move, Double> ratioByMove) {
+        Node n = root;
+        for (Move move : path) {
+            if (n.children.isEmpty() && n.provenValue == ProvenValue.UNKNOWN) {
+                createChildNodes(n);
+            }
+            n = n.children.get(move);
+            if (n == null) {
+                return;
+            }
+        }
+        if (n.children.isEmpty() && n.provenValue == ProvenValue.UNKNOWN) {
+            createChildNodes(n);
+        }
+
+        long seededVisits = 0;
+        double seededWhiteScore = 0;
+        for (Map.Entry<Move, Double> entry : ratioByMove.entrySet()) {
+            Node child = n.children.get(entry.getKey());
+            double ratio = entry.getValue();
+            if (child == null || child.provenValue != ProvenValue.UNKNOWN || visitsOf(child.stats) > 0 || Double.isNaN(ratio)) {
+                continue;
+            }
+            double winrate = Double.isInfinite(ratio) ? 1 : ratio / (1 + ratio);
+            double childScore = BOOK_PRIOR_VISITS * (1 - 2 * winrate); // For the side to move in the child
+            NODE_STATS.addAndGet(child, BOOK_PRIOR_VISITS * ONE_VISIT + Math.round(childScore * SCORE_SCALE));
+            seededVisits += BOOK_PRIOR_VISITS;
+            seededWhiteScore += child.board.getSideToMove() == Side.WHITE ? childScore : -childScore;
+        }
+
+        // Count the seeded visits up to the root as well, as if they had been backpropagated.
+        for (Node ancestor = n; seededVisits > 0 && ancestor != null; ancestor = ancestor.parent) {
+            double score = ancestor.board.getSideToMove() == Side.WHITE ? seededWhiteScore : -seededWhiteScore;
+            NODE_STATS.addAndGet(ancestor, seededVisits * ONE_VISIT + Math.round(score * SCORE_SCALE));
+        }
+    }
+
+    /**
+     * Limit the size of the tree. When either limit is reached, the least visited subtrees are collapsed into their
+     * top node, which keeps its statistics and is expanded again if the search comes back to it. Defaults to no node
+     * limit and a quarter of the maximum heap.
+     */
+    public void setMemoryBudget(long maxNodes, long maxBytes) {
+        this.maxNodes = maxNodes;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Limit the size of the tree to its share of a budget shared with other trees, instead of a fixed byte limit. The
+     * node limit still applies.
+     */
+    public void setMemoryBudget(SearchMemoryBudget sharedBudget) {
+        this.sharedBudget = sharedBudget;
+        sharedBudget.join(this);
+    }
+
+    private long nodeBudget() {
+        long bytes = sharedBudget != null ? sharedBudget.getBytesPerTree() : maxBytes;
+        return Math.max(1, Math.min(maxNodes, bytes / ESTIMATED_BYTES_PER_NODE));
+    }
+
+    private void pruneTree(long targetSize) {
+        long sizeBefore = root.subtreeSize;
+
+        List<Node> candidates = new ArrayList<>();
+        collectCollapsibleNodes(root, candidates);
+        candidates.sort(Comparator.comparingLong(n -> n.simulationCount()));
+
+        for (Node n : candidates) {
+            if (root.subtreeSize <= targetSize) {
+                break;
+            }
+            if (isAttachedToRoot(n)) {
+                collapse(n);
+            }
+        }
+
+        System.out.println("Pruned search tree from " + sizeBefore + " to " + root.subtreeSize + " nodes");
+    }
+
+    /**
+     * Expanded nodes below the root whose subtree may be dropped. Solved nodes are kept, their subtrees are the proof.
+     */
+    private void collectCollapsibleNodes(Node n, List<Node> candidates) {
+        for (Node child : n.children.values()) {
+            if (!child.children.isEmpty() && child.provenValue == ProvenValue.UNKNOWN) {
+                candidates.add(child);
+                collectCollapsibleNodes(child, candidates);
+            }
+        }
+    }
+
+    private boolean isAttachedToRoot(Node n) {
+        while (n != root) {
+            if (n.parent == null || n.parent.children.get(n.movePlayedToGetToThisState) != n) {
+                return false; // Inside a subtree that was already collapsed
+            }
+            n = n.parent;
+        }
+        return true;
+    }
+
+    private static void collapse(Node n) {
+        Map<Move, Node> expanded = n.children;
+        if (expanded.isEmpty() || !NODE_CHILDREN.compareAndSet(n, expanded, new HashMap<>())) {
+            return; // Being expanded or collapsed by another thread
+        }
+        n.amafStats = null;
+        n.childMoveKeys = null;
+        long removed = NODE_SUBTREE_SIZE.getAndSet(n, 1) - 1;
+        for (Node ancestor = n.parent; ancestor != null; ancestor = ancestor.parent) {
+            NODE_SUBTREE_SIZE.addAndGet(ancestor, -removed);
+        }
     }
 
     static int getNumberOfThreats(Board board) {
@@ -191,10 +670,6 @@ public class MonteCarloTreeSearch {
         return attacks;
     }
 
-    private boolean isWinningState(Board board) {
-        return getAllPossibleMoves(board).isEmpty();
-    }
-
     private Node findExpandableLeafNode(Node n) {
         if (n.children.isEmpty()) {
             return n;
@@ -203,19 +678,33 @@ public class MonteCarloTreeSearch {
             // With help on the algorithm from http://teytaud.over-blog.com/article-35709049.html
             List<ChildOptionWithUCTValue> childOptions = n.children.values().stream().map(node -> new ChildOptionWithUCTValue(node, 0.0)).collect(Collectors.toList());
 
-            // Do not consider terminal states for expansion.
-            childOptions = childOptions.stream().filter(x -> !x.childState.terminalState).collect(Collectors.toList());
+            // Do not consider solved subtrees for expansion, their value can no longer change.
+            childOptions = childOptions.stream().filter(x -> x.childState.provenValue == ProvenValue.UNKNOWN).collect(Collectors.toList());
 
             if (childOptions.isEmpty()) {
                 return null; // This node has no expandable children nodes.
             }
 
-            // Calculate UCT values for all child options.
+            // Calculate UCT values for all child options. The AMAF statistics are gone if another thread collapsed n.
+            AtomicLongArray parentAmafStats = n.amafStats;
             for (ChildOptionWithUCTValue childOptionWithUCTValue : childOptions) {
                 Node childNode = childOptionWithUCTValue.childState;
 
-                double exploitationComponent = (childNode.wins + childNode.simulationCount) / (double) (childNode.simulationCount * 2);
-                double explorationComponent = Math.sqrt(Math.log(n.simulationCount) / childNode.simulationCount);
+                // Child wins are scored for the side to move in the child, i.e. the opponent of whoever chooses here.
+                long childStats = childNode.stats;
+                long childVisits = visitsOf(childStats);
+                double exploitationComponent = 1 - winrateOf(childStats);
+
+                // RAVE: blend in the AMAF winrate, which is noisier but gathered much faster. Its weight fades as the
+                // child collects real visits.
+                long amafStats = parentAmafStats == null ? 0 : parentAmafStats.get(childNode.indexInParent);
+                if (visitsOf(amafStats) > 0) {
+                    double amafComponent = 1 - winrateOf(amafStats);
+                    double beta = Math.sqrt(RAVE_EQUIVALENCE / (3 * childVisits + RAVE_EQUIVALENCE));
+                    exploitationComponent = (1 - beta) * exploitationComponent + beta * amafComponent;
+                }
+
+                double explorationComponent = Math.sqrt(Math.log(n.simulationCount()) / childVisits);
                 double threatComponent = 1 - (1 / (double)(childNode.numberOfThreats + 1));
                 double uctValue = exploitationComponent + EXPLORATION_CONSTANT * explorationComponent + THREAT_CONSTANT * threatComponent;
 
@@ -230,7 +719,7 @@ public class MonteCarloTreeSearch {
             }
 
             // Shuffle to randomize things of equal UCT value, then sort descending to go for most promising first
-            Collections.shuffle(childOptions);
+            Collections.shuffle(childOptions, random);
             childOptions.sort(Comparator.comparingDouble(x -> x.uct));
             Collections.reverse(childOptions);
 
@@ -246,15 +735,7 @@ public class MonteCarloTreeSearch {
     }
 
     public boolean isGameGoingToEndSoon() {
-        if (forcedSequences.size() > 0) {
-            return true;
-        }
-
-        if (root.terminalState || root.children.values().stream().allMatch(n -> n.terminalState)) {
-            return true;
-        }
-
-        return false;
+        return root.provenValue != ProvenValue.UNKNOWN;
     }
 
     private static class ChildOptionWithUCTValue {
@@ -270,7 +751,7 @@ public class MonteCarloTreeSearch {
     /*
      * This could probably be improved with an LRU cache
      */
-    private static List<Move> getAllPossibleMoves(Board state) {
+    static List<Move> getAllPossibleMoves(Board state) {
         MoveList pseudoLegalMoves = MoveGenerator.generatePseudoLegalMoves(state);
         List<Move> captureMoves = new ArrayList<>();
         List<Move> nonCaptureMoves = new ArrayList<>();
@@ -295,8 +776,47 @@ public class MonteCarloTreeSearch {
             root = root.children.get(moveMade);
             root.parent = null;
         } else {
-            root.board.doMove(moveMade);
+            Board newState = root.board.clone();
+            newState.doMove(moveMade);
+            root = new Node(newState, null);
+        }
+    }
+
+    /**
+     * Make the node of the given position the root, keeping what has been searched below it, if the position is in the
+     * tree within {@value #REROOT_SEARCH_DEPTH} moves of the root. Otherwise start a new tree from the position. For
+     * when the moves that led to the position are not known, see {@link #applyMove} otherwise.
+     *
+     * @return whether the position was found in the tree
+     */
+    public boolean reroot(Board position) {
+        long key = ZobristHash.hash(position);
+        List<Node> level = Collections.singletonList(root);
+        for (int depth = 0; depth <= REROOT_SEARCH_DEPTH && !level.isEmpty(); depth++) {
+            List<Node> nextLevel = new ArrayList<>();
+            for (Node n : level) {
+                if (ZobristHash.hash(n.board) == key) {
+                    root = n;
+                    root.parent = null;
+                    return true;
+                }
+                nextLevel.addAll(n.children.values());
+            }
+            level = nextLevel;
         }
+        root = new Node(position.clone(), null);
+        return false;
+    }
+
+    /**
+     * Keep growing the tree from the current root, e.g. while the opponent is thinking, until the calling thread is
+     * interrupted, the time limit passes or the root is solved. The tree must not be used from any other thread until
+     * this returns.
+     */
+    public void ponder(Duration timeLimit) {
+        Instant start = Instant.now();
+        long searchesDone = runSearches(timeLimit, Long.MAX_VALUE, false);
+        System.out.println("Pondered " + searchesDone + " searches in " + (Instant.now().toEpochMilli() - start.toEpochMilli() + "ms"));
     }
 
     public Move findBestMove(long searchLimit) {
@@ -307,16 +827,14 @@ public class MonteCarloTreeSearch {
         return findBestMove(timeLimit, Long.MAX_VALUE);
     }
 
+    /**
+     * Search until the time or search limit is reached, the root is solved or the calling thread is interrupted, then
+     * return the strongest move found. See {@link AnytimeSearch} to run this in the background.
+     */
     public Move findBestMove(Duration timeLimit, long searchLimit) {
-        if (forcedSequences.containsKey(root.board)) {
-            Move move = forcedSequences.get(root.board);
-            System.out.println("Using forced sequence move " + move);
-            return move;
-        }
-
         System.out.println("Starting to find best move");
         printTree();
-        search(); // Propagates child nodes if they don't exist yet at this new root node.
+        expandRoot();
 
         if (root.children.size() == 1) {
             System.out.println("Only 1 move available, playing it.");
@@ -324,78 +842,385 @@ public class MonteCarloTreeSearch {
         }
 
         Instant start = Instant.now();
-        Instant end = start.plus(timeLimit);
+        long searchesDone = runSearches(timeLimit, searchLimit, true);
+
+        System.out.println(searchesDone + " searches done in " + (Instant.now().toEpochMilli() - start.toEpochMilli() + "ms"));
+        if (root.provenValue != ProvenValue.UNKNOWN) {
+            System.out.println("Root position is a proven " + root.provenValue + " for " + root.board.getSideToMove());
+        }
+
+        System.out.println("After searching, tree looks like this:");
+        printTree();
+
+        Move bestMove = null;
+        List<Map.Entry<Move, Node>> bestMoves = strongestMoves(root.children);
+        if (!bestMoves.isEmpty()) {
+            double bestMoveExpectedWinrate = expectedWinrateOfMove(bestMoves.get(0).getValue());
+            List<Move> moves = bestMoves.stream().map(Map.Entry::getKey).collect(Collectors.toList());
+            System.out.println("There are " + moves.size() + " strongest moves with my expected winrate being " + String.format("%.1f", bestMoveExpectedWinrate * 100) + "%");
+            System.out.println(moves);
+            bestMove = moves.get(random.nextInt(moves.size()));
+        }
 
-        int searchesDone = 0;
-        while (Instant.now().isBefore(end)) {
-            boolean finished = search();
-            searchesDone++;
-            if (searchesDone >= searchLimit || finished) {
+        if (traceRecorder != null) {
+            recordTrace(bestMove, searchesDone, System.nanoTime() - searchStartNanos);
+        }
+        return bestMove;
+    }
+
+    /**
+     * Run one search, which propagates child nodes if they don't exist yet at this new root node. Holds a core like
+     * any other search, unless the search is stopped while waiting for one: a root without children has no move to
+     * return, so it is then expanded without one.
+     */
+    private void expandRoot() {
+        try {
+            if (schedulerTicket != null) {
+                schedulerTicket.acquire();
+            }
+            search();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt(); // Stopped while waiting for a core
+            if (root.children.isEmpty()) {
+                search();
+            }
+        } finally {
+            if (schedulerTicket != null) {
+                schedulerTicket.release();
+            }
+        }
+    }
+
+    /**
+     * Record the root statistics and principal variation of the search that just chose movePlayed.
+     */
+    private void recordTrace(Move movePlayed, long iterations, long elapsedNanos) {
+        int childCount = root.children.size();
+        Move[] moves = new Move[childCount];
+        long[] visits = new long[childCount];
+        double[] expectedWinrates = new double[childCount];
+        int[] provenValues = new int[childCount];
+        int i = 0;
+        for (Map.Entry<Move, Node> child : root.children.entrySet()) {
+            moves[i] = child.getKey();
+            visits[i] = child.getValue().simulationCount();
+            expectedWinrates[i] = expectedWinrateOfMove(child.getValue());
+            provenValues[i] = child.getValue().provenValue.ordinal();
+            i++;
+        }
+
+        try {
+            traceRecorder.record(System.currentTimeMillis(), root.board.getFen(), movePlayed, iterations, elapsedNanos,
+                    visitsOf(root.stats), winrateOf(root.stats), root.provenValue.ordinal(),
+                    moves, visits, expectedWinrates, provenValues, principalVariation());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * The line of play both sides are expected to follow: from the root, the most visited of the strongest moves.
+     */
+    private List<Move> principalVariation() {
+        List<Move> line = new ArrayList<>();
+        Node n = root;
+        while (line.size() < MAX_MOVE_DEPTH) {
+            Optional<Map.Entry<Move, Node>> best = strongestMoves(n.children).stream().max(Comparator.comparingLong(entry -> entry.getValue().simulationCount()));
+            if (!best.isPresent()) {
                 break;
             }
-            if (forcedSequences.size() > 0) {
-                // We found a way to a guaranteed win
-                System.out.println("Forced sequences found: " + forcedSequences.entrySet().stream().map(entry -> entry.getKey().getFen() + " :: " + entry.getValue()).collect(Collectors.toList()));
-                return findBestMove(1);
+            line.add(best.get().getKey());
+            n = best.get().getValue();
+        }
+        return line;
+    }
+
+    /**
+     * @param stopWhenDecided also stop once no other root move could overtake the best one with the iterations left
+     */
+    private long runSearches(Duration timeLimit, long searchLimit, boolean stopWhenDecided) {
+        Instant end = Instant.now().plus(timeLimit);
+        searchStartNanos = System.nanoTime();
+        searchesDone = 0;
+        metrics.reset();
+        long nextMetricsLog = searchStartNanos + METRICS_LOG_INTERVAL_NANOS;
+
+        try {
+            if (schedulerTicket != null) {
+                schedulerTicket.acquire();
+            }
+            while (!Thread.currentThread().isInterrupted() && root.provenValue == ProvenValue.UNKNOWN && Instant.now().isBefore(end)) {
+                boolean finished = search();
+                searchesDone++;
+                if (searchesDone >= searchLimit || finished) {
+                    break;
+                }
+                if (stopWhenDecided && searchesDone % EARLY_STOP_CHECK_INTERVAL == 0) {
+                    // Estimate how many more iterations fit in the remaining time at the rate measured so far.
+                    double iterationsPerNano = searchesDone / (double) (System.nanoTime() - searchStartNanos);
+                    long remainingIterations = (long) Math.min(searchLimit - searchesDone, Duration.between(Instant.now(), end).toNanos() * iterationsPerNano);
+                    if (bestMoveIsDecided(remainingIterations)) {
+                        System.out.println("Stopping early, no move can overtake the best one within " + remainingIterations + " more searches");
+                        break;
+                    }
+                }
+                if (System.nanoTime() - nextMetricsLog >= 0) {
+                    System.out.println(metrics.toLogLine());
+                    nextMetricsLog += METRICS_LOG_INTERVAL_NANOS;
+                }
+                if (schedulerTicket != null) {
+                    schedulerTicket.checkpoint();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt(); // Stopped while waiting for a core
+        } finally {
+            if (schedulerTicket != null) {
+                schedulerTicket.release();
             }
         }
+        System.out.println(metrics.toLogLine());
+        return searchesDone;
+    }
 
-        System.out.println(searchesDone + " searches done in " + (Instant.now().toEpochMilli() - start.toEpochMilli() + "ms"));
+    /**
+     * Whether the move findBestMove would pick stays the pick however the remaining iterations turn out. Conservative:
+     * every other move is given all remaining iterations as wins, while the best move is given them all as losses.
+     */
+    private boolean bestMoveIsDecided(long remainingIterations) {
+        List<Map.Entry<Move, Node>> bestMoves = strongestMoves(root.children);
+        if (bestMoves.size() != 1) {
+            return false; // Tied, or nothing to choose from
+        }
 
-        System.out.println("After searching, tree looks like this:");
-        printTree();
+        Node best = bestMoves.get(0).getValue();
+        int bestRank = provenRankOfMove(best);
+        double bestLowerBound = best.provenValue == ProvenValue.UNKNOWN ? winrateBound(best, remainingIterations, 0) : expectedWinrateOfMove(best);
+
+        for (Node child : root.children.values()) {
+            if (child == best || provenRankOfMove(child) < bestRank) {
+                continue; // Proven worse, cannot overtake
+            }
+            double childUpperBound = child.provenValue == ProvenValue.UNKNOWN ? winrateBound(child, remainingIterations, 1) : expectedWinrateOfMove(child);
+            if (childUpperBound >= bestLowerBound) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Expected winrate of a root move (for the side to move at the root) if it received the given number of extra
+     * simulations, each scoring the given result (1 for a win, 0 for a loss).
+     */
+    private static double winrateBound(Node childNode, long extraSimulations, double result) {
+        long childStats = childNode.stats;
+        long visits = visitsOf(childStats);
+        double winrate = visits == 0 ? 0 : 1 - winrateOf(childStats);
+        return (winrate * visits + result * extraSimulations) / (double) Math.max(1, visits + extraSimulations);
+    }
 
-        List<Move> bestMoves = new ArrayList<>();
+    /**
+     * The state of the running (or last) search. Safe to call from any thread while the search is running.
+     */
+    public SearchSnapshot snapshot() {
+        Node snapshotRoot = root;
+        long rootVisits = visitsOf(snapshotRoot.stats);
+        long elapsedNanos = System.nanoTime() - searchStartNanos;
+        long iterations = searchesDone;
+        double iterationsPerSecond = elapsedNanos > 0 ? iterations * 1e9 / elapsedNanos : 0;
+
+        // Among equally strong moves, report the most visited one.
+        Optional<Map.Entry<Move, Node>> best = strongestMoves(snapshotRoot.children).stream().max(Comparator.comparingLong(entry -> entry.getValue().simulationCount()));
+        if (!best.isPresent()) {
+            return new SearchSnapshot(snapshotRoot.board.getSideToMove(), null, 0, winrateOf(snapshotRoot.stats), iterations, iterationsPerSecond, snapshotRoot.provenValue != ProvenValue.UNKNOWN);
+        }
+
+        Node bestNode = best.get().getValue();
+        double visitShare = rootVisits > 0 ? bestNode.simulationCount() / (double) rootVisits : 0;
+        return new SearchSnapshot(snapshotRoot.board.getSideToMove(), best.get().getKey(), visitShare, expectedWinrateOfMove(bestNode), iterations, iterationsPerSecond, snapshotRoot.provenValue != ProvenValue.UNKNOWN);
+    }
+
+    /**
+     * The moves with the highest expected winrate for the side to move. Proven results outrank statistics: a move into
+     * a lost position for the opponent beats anything, and a move into a won position for the opponent is only played
+     * when every move loses. Among proven wins the fastest is played, and among proven losses the slowest.
+     */
+    private static List<Map.Entry<Move, Node>> strongestMoves(Map<Move, Node> children) {
+        int bestProvenRank = children.values().stream().mapToInt(MonteCarloTreeSearch::provenRankOfMove).max().orElse(0);
+        int bestDistanceRank = children.values().stream().filter(c -> provenRankOfMove(c) == bestProvenRank).mapToInt(MonteCarloTreeSearch::distanceRankOfMove).max().orElse(0);
+
+        List<Map.Entry<Move, Node>> bestMoves = new ArrayList<>();
         double bestMoveExpectedWinrate = 0;
         boolean found = false;
-        for (Map.Entry<Move, Node> child : root.children.entrySet()) {
+        for (Map.Entry<Move, Node> child : children.entrySet()) {
             Node childNode = child.getValue();
-            double childExpectedWinrate = (-childNode.wins + childNode.simulationCount) / (double) (childNode.simulationCount * 2);
+            if (provenRankOfMove(childNode) != bestProvenRank || distanceRankOfMove(childNode) != bestDistanceRank) {
+                continue;
+            }
+            double childExpectedWinrate = expectedWinrateOfMove(childNode);
             if (!found || childExpectedWinrate >= bestMoveExpectedWinrate) {
                 if (childExpectedWinrate > bestMoveExpectedWinrate) {
                     bestMoves.clear(); // Found a new best
                 }
-                bestMoves.add(child.getKey());
+                bestMoves.add(child);
                 bestMoveExpectedWinrate = childExpectedWinrate;
                 found = true;
             }
         }
+        return bestMoves;
+    }
 
-        if (bestMoves.isEmpty()) {
-            return null;
-        } else {
-            System.out.println("There are " + bestMoves.size() + " strongest moves with my expected winrate being " + String.format("%.1f", bestMoveExpectedWinrate * 100) + "%");
-            System.out.println(bestMoves);
-            return bestMoves.get(RANDOM.nextInt(bestMoves.size()));
+    /**
+     * How good the distance of a proven move is, higher being better: shorter into a lost position for the opponent,
+     * longer into a won one. Unknown distances rank last.
+     */
+    private static int distanceRankOfMove(Node childNode) {
+        if (childNode.provenValue != ProvenValue.WIN && childNode.provenValue != ProvenValue.LOSS) {
+            return 0;
+        } else if (childNode.provenDistance == UNKNOWN_DISTANCE) {
+            return Integer.MIN_VALUE;
+        }
+        return childNode.provenValue == ProvenValue.LOSS ? -childNode.provenDistance : childNode.provenDistance;
+    }
+
+    private static int provenRankOfMove(Node childNode) {
+        switch (childNode.provenValue) {
+            case LOSS:
+                return 2;
+            case WIN:
+                return 0;
+            default:
+                return 1;
         }
     }
 
+    /**
+     * Expected winrate for the side to move at the root after playing into childNode.
+     */
+    private static double expectedWinrateOfMove(Node childNode) {
+        if (childNode.provenValue == ProvenValue.LOSS) {
+            return 1.0;
+        } else if (childNode.provenValue == ProvenValue.DRAW) {
+            return 0.5;
+        }
+        long childStats = childNode.stats;
+        if (visitsOf(childStats) == 0) {
+            return 0.0;
+        }
+        return 1 - winrateOf(childStats);
+    }
+
     private void printTree() {
-        System.out.println("Root to move: " + root.board.getSideToMove() + " Score: " + root.wins + ", SimCount: " + root.simulationCount);
+        System.out.println("Root to move: " + root.board.getSideToMove() + " Score: " + winsOf(root.stats) + ", SimCount: " + visitsOf(root.stats));
         System.out.println("Children: " + root.children.size());
         for (Map.Entry<Move, Node> moveNodeEntry : root.children.entrySet()) {
             Node node = moveNodeEntry.getValue();
-            System.out.println("* [play " + root.board.getPiece(moveNodeEntry.getKey().getFrom()) + " - " + moveNodeEntry.getKey() + "] then " + node.board.getSideToMove() + " will have " + String.format("%.1f", (100 * (node.wins + node.simulationCount)) / (double) (node.simulationCount * 2)) + "% chance of winning (" + node.simulationCount + " simulations)");
+            long nodeStats = node.stats;
+            System.out.println("* [play " + root.board.getPiece(moveNodeEntry.getKey().getFrom()) + " - " + moveNodeEntry.getKey() + "] " + node.provenValue + " then " + node.board.getSideToMove() + " will have " + String.format("%.1f", 100 * winrateOf(nodeStats)) + "% chance of winning (" + visitsOf(nodeStats) + " simulations)");
         }
     }
 
+    /**
+     * Counters of the running (or last) search. Safe to read from any thread while the search is running.
+     */
+    public SearchMetrics getMetrics() {
+        return metrics;
+    }
+
+    public long getTreeSize() {
+        return root.subtreeSize;
+    }
+
     public double evaluation() {
-        return (root.wins + root.simulationCount) / (double)(root.simulationCount * 2);
+        return winrateOf(root.stats);
+    }
+
+    /**
+     * The number of simulations through the given move from the root.
+     */
+    long visitsOfMove(Move move) {
+        Node childNode = root.children.get(move);
+        return childNode == null ? 0 : childNode.simulationCount();
+    }
+
+    /**
+     * The number of nodes in the tree, counted one by one rather than taken from the subtree sizes.
+     */
+    long countNodes() {
+        long count = 0;
+        Deque<Node> pending = new ArrayDeque<>(Collections.singletonList(root));
+        while (!pending.isEmpty()) {
+            Node n = pending.pop();
+            count++;
+            pending.addAll(n.children.values());
+        }
+        return count;
+    }
+
+    /**
+     * The number of simulations in which the side to move at the root played the given move, now or later.
+     */
+    long amafVisitsOfMove(Move move) {
+        Node childNode = root.children.get(move);
+        return childNode == null || root.amafStats == null ? 0 : visitsOf(root.amafStats.get(childNode.indexInParent));
+    }
+
+    /**
+     * Game-theoretic value of a node, from the perspective of the side to move in that node.
+     */
+    private enum ProvenValue {
+        UNKNOWN, WIN, LOSS, DRAW
+    }
+
+    /**
+     * Moves of one iteration, from the root through the tree and the playout, for the AMAF update. Each searching
+     * thread has its own.
+     */
+    private static class Simulation {
+        public int[] moves = new int[256];
+        public int moveCount = 0;
+        // seen[key | parity] == iteration marks a move played at or after the node being updated.
+        public final int[] seen = new int[2 << MOVE_KEY_BITS];
+        public int iteration = 0;
+
+        public void record(int moveKey) {
+            ensureCapacity(moveCount + 1);
+            moves[moveCount++] = moveKey;
+        }
+
+        public void ensureCapacity(int capacity) {
+            if (moves.length < capacity) {
+                moves = Arrays.copyOf(moves, Math.max(capacity, moves.length * 2));
+            }
+        }
     }
 
     private class Node {
         public final Board board;
-        public long wins = 0;
-        public long simulationCount = 0;
-        public boolean terminalState = false;
+        // Packed visits and score, see SCORE_SCALE. Updated through NODE_STATS only.
+        public volatile long stats = 0;
+        public volatile ProvenValue provenValue = ProvenValue.UNKNOWN;
+        // Plies to the end of the game from a proven win or loss, or UNKNOWN_DISTANCE.
+        public volatile int provenDistance = UNKNOWN_DISTANCE;
         public Move movePlayedToGetToThisState = null;
         public Node parent = null;
-        public Map<Move, Node> children = new HashMap<>();
+        public volatile Map<Move, Node> children = new HashMap<>();
         public int numberOfThreats;
+        // Updated through NODE_SUBTREE_SIZE only.
+        public volatile long subtreeSize = 1;
+        public int indexInParent;
+        // AMAF statistics of the children, indexed by their indexInParent.
+        public int[] childMoveKeys;
+        public volatile AtomicLongArray amafStats;
 
         public Node(Board boardState, Node parent) {
             this.board = boardState;
             this.parent = parent;
         }
+
+        public long simulationCount() {
+            return visitsOf(stats);
+        }
     }
 }
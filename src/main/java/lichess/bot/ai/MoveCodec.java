@@ -0,0 +1,44 @@
+package lichess.bot.ai;
+
+import chesslib.Piece;
+import chesslib.PieceType;
+import chesslib.Rank;
+import chesslib.Side;
+import chesslib.Square;
+import chesslib.move.Move;
+
+/**
+ * The 16-bit form of a move used by every file that stores moves: from and to squares in 6 bits each and the promotion
+ * piece type (plus one, 0 for none) in the 4 bits above. No move is -1. The side of a promotion follows from the rank
+ * it promotes on, so moves decode without knowing the position.
+ */
+final class MoveCodec {
+    static final short NO_MOVE = -1;
+
+    private MoveCodec() {
+    }
+
+    static short encode(Move move) {
+        if (move == null) {
+            return NO_MOVE;
+        }
+        int promotion = move.getPromotion() == Piece.NONE ? 0 : move.getPromotion().getPieceType().ordinal() + 1;
+        return (short) (move.getFrom().ordinal() | move.getTo().ordinal() << 6 | promotion << 12);
+    }
+
+    /**
+     * The move encoded, or null for {@link #NO_MOVE}.
+     */
+    static Move decode(short encoded) {
+        if (encoded == NO_MOVE) {
+            return null;
+        }
+        Square to = Square.squareAt(encoded >> 6 & 63);
+        int promotion = encoded >> 12 & 15;
+        if (promotion == 0) {
+            return new Move(Square.squareAt(encoded & 63), to);
+        }
+        Side side = to.getRank() == Rank.RANK_8 ? Side.WHITE : Side.BLACK;
+        return new Move(Square.squareAt(encoded & 63), to, Piece.make(side, PieceType.values()[promotion - 1]));
+    }
+}
@@ -1,10 +1,15 @@
 package lichess.bot.ai;
 
+import chesslib.Board;
 import chesslib.Piece;
 import chesslib.Square;
 import chesslib.move.Move;
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
 import java.util.Optional;
 import java.util.zip.GZIPInputStream;
 
@@ -12,19 +17,146 @@ import java.util.zip.GZIPInputStream;
  * Suicide chess opening database
  */
 public class OpeningBook {
-    private long nodesLoaded = 0;
-    private BookNode rootNode;
+    private static final int NODE_BYTES = 13;
+    private static final int READ_BUFFER_BYTES = 1 << 16;
+
+    private volatile BookNode rootNode;
+    // Open addressing by Zobrist key of the position a node is in, written before rootNode is published.
+    private long[] positionKeys;
+    private BookNode[] positionNodes;
 
     public OpeningBook() {
-        System.out.println("Loading opening book");
-        try (GZIPInputStream gzis = new GZIPInputStream(getClass().getResourceAsStream("book.in.gz"))) {
-            rootNode = loadPNSNode(gzis);
-            System.out.println("Book loaded.");
+        this(OpeningBook.class.getResourceAsStream("book.in.gz"));
+    }
+
+    /**
+     * Load a book in the gzip-compressed format of book.in.gz.
+     */
+    public OpeningBook(InputStream compressedBook) {
+        this((BookNode) null);
+        try {
+            install(load(compressedBook));
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    private OpeningBook(BookNode rootNode) {
+        this.rootNode = rootNode;
+    }
+
+    /**
+     * Load the bundled book on a background thread. Until {@link #isLoaded()}, the book has no root and finds no moves.
+     */
+    public static OpeningBook loadInBackground() {
+        OpeningBook book = new OpeningBook((BookNode) null);
+        InputStream compressedBook = OpeningBook.class.getResourceAsStream("book.in.gz");
+        if (compressedBook == null) {
+            System.out.println("No opening book to load");
+            return book;
+        }
+
+        Thread loader = new Thread(() -> {
+            try {
+                book.install(load(compressedBook));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, "opening-book-loader");
+        loader.setDaemon(true);
+        loader.start();
+        return book;
+    }
+
+    public boolean isLoaded() {
+        return rootNode != null;
+    }
+
+    /**
+     * The node for the position on the board, however the game got there, or null if it is not in the book (or the book
+     * is not loaded yet). Where lines transpose, the node with the most analysis below it is found.
+     */
+    public BookNode findNode(Board board) {
+        if (rootNode == null) {
+            return null;
+        }
+        long key = ZobristHash.hash(board);
+        for (int slot = slotOf(key, positionKeys.length); positionNodes[slot] != null; slot = (slot + 1) & (positionKeys.length - 1)) {
+            if (positionKeys[slot] == key) {
+                return positionNodes[slot];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Index the position of every node, then publish the book.
+     */
+    private void install(BookNode root) {
+        long start = System.currentTimeMillis();
+        int capacity = Integer.highestOneBit((int) Math.min(root.size * 3 / 2, 1 << 29)) * 2;
+        long[] keys = new long[capacity];
+        BookNode[] nodes = new BookNode[capacity];
+
+        // Play through the book depth-first with an explicit stack, like load.
+        Board board = new Board();
+        index(keys, nodes, ZobristHash.hash(board), root);
+        BookNode[] path = new BookNode[64];
+        int[] next = new int[64];
+        int depth = 0;
+        path[0] = root;
+        while (depth >= 0) {
+            BookNode node = path[depth];
+            if (next[depth] == node.children.length) {
+                if (depth > 0) {
+                    board.undoMove();
+                }
+                depth--;
+                continue;
+            }
+
+            BookNode child = node.children[next[depth]++];
+            if (!playBookMove(board, child.move)) {
+                continue; // Not a move in this position, so neither is anything below it
+            }
+            index(keys, nodes, ZobristHash.hash(board), child);
+            depth++;
+            if (depth == path.length) {
+                path = Arrays.copyOf(path, depth * 2);
+                next = Arrays.copyOf(next, depth * 2);
+            }
+            path[depth] = child;
+            next[depth] = 0;
+        }
+
+        positionKeys = keys;
+        positionNodes = nodes;
+        rootNode = root;
+        System.out.println("Book positions indexed in " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    /**
+     * Play a move read from a book, unless it does not move a piece of the side to move, as in a damaged book.
+     */
+    static boolean playBookMove(Board board, Move move) {
+        return board.getPiece(move.getFrom()).getPieceSide() == board.getSideToMove() && board.doMove(move);
+    }
+
+    private static void index(long[] keys, BookNode[] nodes, long key, BookNode node) {
+        int slot = slotOf(key, keys.length);
+        while (nodes[slot] != null && keys[slot] != key) {
+            slot = (slot + 1) & (keys.length - 1);
+        }
+        if (nodes[slot] == null || nodes[slot].size < node.size) {
+            keys[slot] = key;
+            nodes[slot] = node;
+        }
+    }
+
+    private static int slotOf(long key, int capacity) {
+        return (int) (key ^ key >>> 32) & (capacity - 1);
+    }
+
     public Optional<Move> findBestMove(BookNode n) {
         if (n == null) {
             return Optional.empty();
@@ -56,26 +188,52 @@ public class OpeningBook {
         return null;
     }
 
-    private BookNode loadPNSNode(GZIPInputStream gzis) throws IOException {
-        byte[] buf = new byte[13];
-        short[] numBuf = new short[13];
-        int bufFilled = 0;
-        while (bufFilled < 13) {
-            int read = gzis.read(buf, bufFilled, 13 - bufFilled);
-            if (read == -1) {
-                System.out.println("Reached end of stream");
-                break;
+    /**
+     * Decode a whole book. Nodes are stored depth-first, each followed by its children, and are read in bulk and
+     * decoded with an explicit stack, so that deep lines cannot overflow the call stack.
+     */
+    private static BookNode load(InputStream compressedBook) throws IOException {
+        System.out.println("Loading opening book");
+        long start = System.currentTimeMillis();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(compressedBook, READ_BUFFER_BYTES), READ_BUFFER_BYTES))) {
+            byte[] buf = new byte[NODE_BYTES];
+            BookNode root = readNode(in, buf);
+
+            // path[depth] is the node whose children are being read, next[depth] the child to read next.
+            BookNode[] path = new BookNode[64];
+            int[] next = new int[64];
+            int depth = 0;
+            path[0] = root;
+            while (depth >= 0) {
+                BookNode node = path[depth];
+                if (next[depth] == node.children.length) {
+                    recomputeRatio(node);
+                    if (depth > 0) {
+                        path[depth - 1].size += node.size;
+                    }
+                    depth--;
+                    continue;
+                }
+
+                BookNode child = readNode(in, buf);
+                child.parent = node;
+                node.children[next[depth]++] = child;
+                depth++;
+                if (depth == path.length) {
+                    path = Arrays.copyOf(path, depth * 2);
+                    next = Arrays.copyOf(next, depth * 2);
+                }
+                path[depth] = child;
+                next[depth] = 0;
             }
-            bufFilled += read;
-        }
 
-        if (bufFilled != 13) {
-            System.out.println("Buffer not filled, size = " + bufFilled);
+            System.out.println("Book loaded: " + root.size + " nodes in " + (System.currentTimeMillis() - start) + "ms");
+            return root;
         }
+    }
 
-        for (int i = 0; i < 13; i++) {
-            numBuf[i] = (short) (buf[i] & 0xFF); // make it unsigned
-        }
+    private static BookNode readNode(DataInputStream in, byte[] buf) throws IOException {
+        in.readFully(buf);
 
         BookNode node = new BookNode();
         Piece promo = Piece.NONE;
@@ -111,32 +269,17 @@ public class OpeningBook {
         }
         node.move = new Move(pnsSquare(buf[0]), pnsSquare(buf[1]), promo);
         node.enPassantSquare = buf[3];
-        node.proof = numBuf[4] + (numBuf[5] << 8) + (numBuf[6] << 16) + (numBuf[7] << 24);
-        node.disproof = numBuf[8] + (numBuf[9] << 8) + (numBuf[10] << 16) + (numBuf[11] << 24);
-        int numChildren = numBuf[12];
-        node.children = new BookNode[numChildren];
-
-        nodesLoaded++;
-
-        if (nodesLoaded % 100000 == 0) {
-            System.out.println("Nodes loaded: " + nodesLoaded);
-        }
-
-        for (int i = 0; i < numChildren; i++) {
-            try {
-                node.children[i] = loadPNSNode(gzis);
-            } catch (Exception e) {
-                System.out.println(node.move);
-                throw e;
-            }
-            node.children[i].parent = node;
-            node.size += node.children[i].size;
-        }
-        recomputeRatio(node);
+        node.proof = littleEndianInt(buf, 4);
+        node.disproof = littleEndianInt(buf, 8);
+        node.children = new BookNode[buf[12] & 0xFF];
         return node;
     }
 
-    private void recomputeRatio(BookNode node) {
+    private static int littleEndianInt(byte[] buf, int offset) {
+        return (buf[offset] & 0xFF) | (buf[offset + 1] & 0xFF) << 8 | (buf[offset + 2] & 0xFF) << 16 | (buf[offset + 3] & 0xFF) << 24;
+    }
+
+    private static void recomputeRatio(BookNode node) {
         if (node.children.length == 0) {
             node.ratio = 1.0 * node.proof / node.disproof;
         } else {
@@ -149,7 +292,7 @@ public class OpeningBook {
         }
     }
 
-    private Square pnsSquare(byte value) {
+    private static Square pnsSquare(byte value) {
         int rankFlippedOrdinal = 8 * (7 - (value / 8)) + (value % 8);
         if (rankFlippedOrdinal < 0) {
             System.out.println("What");
@@ -0,0 +1,35 @@
+package lichess.bot.ai;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Converts the gzip-compressed opening book into a {@link FlatOpeningBook}.
+ *
+ * Usage: OpeningBookConverter output-file [book.in.gz], reading the book bundled with the bot by default.
+ */
+public class OpeningBookConverter {
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: OpeningBookConverter output-file [book.in.gz]");
+            System.exit(1);
+        }
+
+        long start = System.currentTimeMillis();
+        OpeningBook book;
+        if (args.length == 2) {
+            try (InputStream in = Files.newInputStream(Paths.get(args[1]))) {
+                book = new OpeningBook(in);
+            }
+        } else {
+            book = new OpeningBook();
+        }
+
+        Path output = Paths.get(args[0]);
+        FlatOpeningBook.write(book.getRootNode(), output);
+        System.out.println("Wrote " + book.getRootNode().size + " nodes to " + output + " in " + (System.currentTimeMillis() - start) + "ms");
+    }
+}
@@ -0,0 +1,262 @@
+package lichess.bot.ai;
+
+import chesslib.Board;
+import chesslib.move.Move;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Proof-number search (https://en.wikipedia.org/wiki/Proof-number_search) for forced wins of the side to move.
+ *
+ * Antichess is full of forced capture sequences, where the defender often has one or two replies; proof and disproof
+ * numbers steer the search straight down those. Uses the two-level PN2 variant to stay within the node budget: every
+ * leaf expanded in the main tree gets its children evaluated by a temporary second-level search, of which only the
+ * children's proof numbers are kept. Proven positions are kept in a transposition table, so transpositions and later
+ * searches in the same game are solved at once.
+ *
+ * Draws and lines longer than {@value #MAX_DEPTH} plies count as not winning.
+ */
+public class ProofNumberSearch {
+    static final int INFINITY = 1 << 30;
+    private static final int MAX_DEPTH = 64;
+    private static final long MAX_SECOND_LEVEL_NODES = 200;
+    private static final int TRANSPOSITION_TABLE_BITS = 20;
+    private static final byte SIDE_TO_MOVE_WINS = 1;
+    private static final byte SIDE_TO_MOVE_LOSES = 2;
+
+    private final long maxNodes;
+    // Open addressing with replacement: the results of proven positions, by Zobrist key.
+    private final long[] transpositionKeys = new long[1 << TRANSPOSITION_TABLE_BITS];
+    private final byte[] transpositionResults = new byte[1 << TRANSPOSITION_TABLE_BITS];
+    private Board board;
+    private long deadlineNanos;
+    private SearchScheduler.Ticket schedulerTicket = null;
+
+    /**
+     * @param maxNodes most nodes kept in the main tree per search
+     */
+    public ProofNumberSearch(long maxNodes) {
+        this.maxNodes = maxNodes;
+    }
+
+    /**
+     * Only search while holding one of the scheduler's cores through the given ticket. Null (the default) searches
+     * whenever asked.
+     */
+    public void setSchedulerTicket(SearchScheduler.Ticket schedulerTicket) {
+        this.schedulerTicket = schedulerTicket;
+    }
+
+    /**
+     * A move that wins by force for the side to move, or null if none was proven within the node budget and the time
+     * limit (or the calling thread was interrupted).
+     */
+    public Move findForcedWin(Board position, Duration timeLimit) {
+        long start = System.currentTimeMillis();
+        deadlineNanos = System.nanoTime() + timeLimit.toNanos();
+        board = position.clone();
+        Node root = new Node(null, null, true, 0);
+        if (TerminalClassifier.classify(board) != TerminalClassifier.Outcome.ONGOING) {
+            return null; // The game is over
+        }
+
+        long nodes = 0;
+        try {
+            if (schedulerTicket != null) {
+                schedulerTicket.acquire();
+            }
+            nodes = search(root, maxNodes, true);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt(); // Stopped while waiting for a core
+        } finally {
+            if (schedulerTicket != null) {
+                schedulerTicket.release();
+            }
+        }
+
+        Move win = null;
+        if (root.proof == 0) {
+            for (Node child : root.children) {
+                if (child.proof == 0) {
+                    win = child.move;
+                    break;
+                }
+            }
+        }
+        System.out.println("Proof-number search " + (win != null ? "proved a win with " + win : root.disproof == 0 ? "found no forced win" : "was inconclusive")
+                + " after " + nodes + " nodes in " + (System.currentTimeMillis() - start) + "ms");
+        return win;
+    }
+
+    /**
+     * Grow the tree below root, which must be the position on the board, until it is solved or holds nodeLimit nodes.
+     *
+     * @param secondLevel whether to evaluate expanded nodes with a second-level search
+     * @return the number of nodes created
+     */
+    private long search(Node root, long nodeLimit, boolean secondLevel) {
+        long nodes = 1;
+        while (root.proof != 0 && root.disproof != 0 && nodes < nodeLimit && !mustStop()) {
+            Node n = root;
+            while (n.children != null) {
+                n = mostProvingChild(n);
+                board.doMove(n.move);
+            }
+
+            nodes += expand(n, secondLevel ? Math.min(nodes, MAX_SECOND_LEVEL_NODES) : 0);
+
+            while (true) {
+                updateProofNumbers(n);
+                if (n.proof == 0) {
+                    storeProof(n);
+                }
+                if (n == root) {
+                    break;
+                }
+                board.undoMove();
+                n = n.parent;
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * Whether the time is up or the thread was interrupted. Hands the core on first if the scheduler asks for it.
+     */
+    private boolean mustStop() {
+        if (schedulerTicket != null) {
+            try {
+                schedulerTicket.checkpoint();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt(); // Stopped while waiting for a core
+            }
+        }
+        return System.nanoTime() - deadlineNanos > 0 || Thread.currentThread().isInterrupted();
+    }
+
+    /**
+     * Create the children of n, the position on the board. With a second-level limit, search below n with that many
+     * nodes, then keep only the children and their proof numbers.
+     */
+    private int expand(Node n, long secondLevelLimit) {
+        List<Move> moves = MonteCarloTreeSearch.getAllPossibleMoves(board);
+        Node[] children = new Node[moves.size()];
+        for (int i = 0; i < children.length; i++) {
+            Move move = moves.get(i);
+            board.doMove(move);
+            children[i] = newNode(move, n);
+            board.undoMove();
+        }
+        n.children = children;
+
+        if (secondLevelLimit > 0) {
+            updateProofNumbers(n);
+            search(n, secondLevelLimit, false);
+            for (Node child : children) {
+                child.children = null;
+            }
+        }
+        return children.length;
+    }
+
+    /**
+     * A leaf for the position on the board, reached from parent with move.
+     */
+    private Node newNode(Move move, Node parent) {
+        Node n = new Node(move, parent, !parent.attacker, parent.depth + 1);
+        TerminalClassifier.Outcome outcome = TerminalClassifier.classify(board);
+        if (outcome == TerminalClassifier.Outcome.WIN || outcome == TerminalClassifier.Outcome.LOSS) {
+            n.setSolved((outcome == TerminalClassifier.Outcome.WIN) == n.attacker);
+        } else if (outcome == TerminalClassifier.Outcome.DRAW || n.depth >= MAX_DEPTH) {
+            n.setSolved(false);
+        } else {
+            byte result = probe(ZobristHash.hash(board));
+            int replies = MonteCarloTreeSearch.getAllPossibleMoves(board).size();
+            if (result != 0) {
+                n.setSolved((result == SIDE_TO_MOVE_WINS) == n.attacker);
+            } else if (n.attacker) {
+                // Mobility: one good move proves a node, every move has to be refuted to disprove it.
+                n.proof = 1;
+                n.disproof = replies;
+            } else {
+                n.proof = replies;
+                n.disproof = 1;
+            }
+        }
+        return n;
+    }
+
+    private static Node mostProvingChild(Node n) {
+        for (Node child : n.children) {
+            if (n.attacker ? child.proof == n.proof : child.disproof == n.disproof) {
+                return child;
+            }
+        }
+        throw new IllegalStateException("No child matches the proof numbers of its parent");
+    }
+
+    static void updateProofNumbers(Node n) {
+        if (n.children == null) {
+            return; // Leaf values stay as evaluated
+        }
+        int min = INFINITY;
+        int sum = 0;
+        for (Node child : n.children) {
+            int minOf = n.attacker ? child.proof : child.disproof;
+            int sumOf = n.attacker ? child.disproof : child.proof;
+            min = Math.min(min, minOf);
+            // Saturate rather than add, two infinite terms would overflow into a negative or even a zero sum.
+            sum = sumOf >= INFINITY || sum >= INFINITY - sumOf ? INFINITY : sum + sumOf;
+        }
+        if (n.attacker) {
+            n.proof = min;
+            n.disproof = sum;
+        } else {
+            n.proof = sum;
+            n.disproof = min;
+        }
+    }
+
+    /**
+     * Remember that the position on the board, node n, is won by the attacker.
+     */
+    private void storeProof(Node n) {
+        long key = ZobristHash.hash(board);
+        int slot = slotOf(key);
+        transpositionKeys[slot] = key;
+        transpositionResults[slot] = n.attacker ? SIDE_TO_MOVE_WINS : SIDE_TO_MOVE_LOSES;
+    }
+
+    private byte probe(long key) {
+        int slot = slotOf(key);
+        return transpositionKeys[slot] == key ? transpositionResults[slot] : 0;
+    }
+
+    private static int slotOf(long key) {
+        return (int) (key ^ key >>> 32) & ((1 << TRANSPOSITION_TABLE_BITS) - 1);
+    }
+
+    static class Node {
+        final Move move;
+        final Node parent;
+        // Whether the side to move here is the side looking for a win (an OR node), rather than the defender.
+        final boolean attacker;
+        final int depth;
+        int proof = 1;
+        int disproof = 1;
+        Node[] children = null;
+
+        Node(Move move, Node parent, boolean attacker, int depth) {
+            this.move = move;
+            this.parent = parent;
+            this.attacker = attacker;
+            this.depth = depth;
+        }
+
+        void setSolved(boolean attackerWins) {
+            proof = attackerWins ? 0 : INFINITY;
+            disproof = attackerWins ? INFINITY : 0;
+        }
+    }
+}
@@ -1,8 +1,6 @@
 package lichess.bot.ai;
 
 import chesslib.Board;
-import chesslib.Piece;
-import chesslib.PieceType;
 import chesslib.Side;
 import chesslib.move.Move;
 import chesslib.move.MoveGenerator;
@@ -23,10 +21,16 @@ import java.util.*;
 public class PureMonteCarloGameSearch {
     private static final long MAX_PLAYOUTS = 500;
     private static final int MAX_MOVE_DEPTH = 100;
+    private final Random random;
     private Board currentPosition;
 
     public PureMonteCarloGameSearch(Board position) {
+        this(position, new XorShiftRandom());
+    }
+
+    public PureMonteCarloGameSearch(Board position, Random random) {
         this.currentPosition = position;
+        this.random = random;
     }
 
     public void updateState(Board board) {
@@ -93,59 +97,32 @@ public class PureMonteCarloGameSearch {
 
         // Choose the move with the highest score
         List<Map.Entry<Move, PlayoutResult>> moveEntries = new ArrayList<>(moveScores.entrySet());
-        Collections.shuffle(moveEntries);
+        Collections.shuffle(moveEntries, random);
         return Collections.max(moveEntries, Comparator.comparingDouble(x -> x.getValue().wins / x.getValue().games)).getKey();
     }
 
     private Pair<Side, Integer> playout(Board state) {
         int movesTested = 0;
-        while (gameInProgress(state)) {
-            makeRandomMove(state);
-            if (gameIsDraw(state)) {
-                return null;
+        while (true) {
+            switch (TerminalClassifier.classify(state)) {
+                case WIN:
+                    return new Pair<>(state.getSideToMove(), movesTested);
+                case LOSS:
+                    return new Pair<>(state.getSideToMove().flip(), movesTested);
+                case DRAW:
+                    return null;
             }
-            movesTested++;
             if (movesTested > MAX_MOVE_DEPTH) {
                 return null; // Assume draw if it goes this long.
             }
+            makeRandomMove(state);
+            movesTested++;
         }
-
-        return new Pair<>(state.getSideToMove(), movesTested);
-    }
-
-    private boolean gameIsDraw(Board state) {
-        List<Move> allPossibleMoves = getAllPossibleMoves(state);
-        if (allPossibleMoves.size() == 0) {
-            return false; // Someone can't move, it's game over
-        }
-
-        for (Move possibleMove : allPossibleMoves) {
-            Piece pieceToMove = state.getPiece(possibleMove.getFrom());
-            if (pieceToMove.getPieceType() != PieceType.BISHOP) {
-                return false; // As long as you can move a non-bishop piece, it's not a draw (yet)
-            }
-        }
-
-        // Now we know we only have bishop moves. It's only a draw if there's exactly 1 bishop on each side
-        if (state.getPieceLocation(Piece.WHITE_BISHOP).size() != 1) {
-            return false;
-        }
-        if (state.getPieceLocation(Piece.BLACK_BISHOP).size() != 1) {
-            return false;
-        }
-
-        // And they're on different colored squares.
-        return state.getPieceLocation(Piece.WHITE_BISHOP).get(0).isLightSquare() != state.getPieceLocation(Piece.BLACK_BISHOP).get(0).isLightSquare();
     }
 
     private void makeRandomMove(Board state) {
         List<Move> allPossibleMoves = getAllPossibleMoves(state);
-        Collections.shuffle(allPossibleMoves);
-        state.doMove(allPossibleMoves.get(0));
-    }
-
-    private boolean gameInProgress(Board state) {
-        return getAllPossibleMoves(state).size() > 0;
+        state.doMove(allPossibleMoves.get(random.nextInt(allPossibleMoves.size())));
     }
 
     private static class PlayoutResult {
@@ -3,14 +3,29 @@ package lichess.bot.ai;
 import chesslib.Board;
 import chesslib.Side;
 
-import java.security.SecureRandom;
 import java.util.Random;
 
 public class RandomBoardEvaluator implements BoardEvaluator {
-    private final Random random = new SecureRandom();
+    private final Random random;
+
+    /**
+     * Draws from the calling thread's {@link XorShiftRandom}, so one evaluator can be shared between searches.
+     */
+    public RandomBoardEvaluator() {
+        this.random = null;
+    }
+
+    public RandomBoardEvaluator(long seed) {
+        this.random = new XorShiftRandom(seed);
+    }
 
     @Override
     public double evaluate(Board board, Side mySide) {
-        return random.nextDouble();
+        return (random == null ? XorShiftRandom.current() : random).nextDouble();
+    }
+
+    @Override
+    public double winProbability(Board board, Side mySide) {
+        return evaluate(board, mySide);
     }
 }
@@ -0,0 +1,44 @@
+package lichess.bot.ai;
+
+import chesslib.Board;
+import chesslib.move.Move;
+
+import java.util.List;
+
+/**
+ * Chooses the search for a position. Captures are mandatory, so many positions leave each side only one to three
+ * moves; there {@link AlphaBetaSearch} enumerates the lines that {@link MonteCarloTreeSearch} would only sample.
+ */
+public final class SearchDispatcher {
+    public enum Algorithm {
+        ALPHA_BETA, MONTE_CARLO_TREE_SEARCH
+    }
+
+    static final double MAX_ALPHA_BETA_BRANCHING_FACTOR = 3.0;
+
+    private SearchDispatcher() {
+    }
+
+    public static Algorithm choose(Board board) {
+        return branchingFactor(board) <= MAX_ALPHA_BETA_BRANCHING_FACTOR ? Algorithm.ALPHA_BETA : Algorithm.MONTE_CARLO_TREE_SEARCH;
+    }
+
+    /**
+     * Moves per ply over the next two plies: the mean of the number of moves here and the mean number of replies.
+     */
+    static double branchingFactor(Board board) {
+        List<Move> moves = MonteCarloTreeSearch.getAllPossibleMoves(board);
+        if (moves.isEmpty()) {
+            return 0;
+        }
+
+        Board next = board.clone();
+        long replies = 0;
+        for (Move move : moves) {
+            next.doMove(move);
+            replies += MonteCarloTreeSearch.getAllPossibleMoves(next).size();
+            next.undoMove();
+        }
+        return (moves.size() + (double) replies / moves.size()) / 2;
+    }
+}
@@ -0,0 +1,62 @@
+package lichess.bot.ai;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One memory limit for a number of search trees together, e.g. those of all games being played, see
+ * {@link MonteCarloTreeSearch#setMemoryBudget(SearchMemoryBudget)}. Every tree gets an equal share, which changes as
+ * trees join and leave. A tree that is dropped without leaving stops counting once it has been garbage collected. Safe
+ * to share between threads.
+ */
+public final class SearchMemoryBudget {
+    private final long maxBytes;
+    private final List<WeakReference<MonteCarloTreeSearch>> trees = new ArrayList<>();
+    // Receives the references of trees that were garbage collected without leaving.
+    private final ReferenceQueue<MonteCarloTreeSearch> collectedTrees = new ReferenceQueue<>();
+    private volatile int treeCount = 0;
+
+    public SearchMemoryBudget(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * A budget of the given fraction of the maximum heap.
+     */
+    public static SearchMemoryBudget ofHeap(double fraction) {
+        return new SearchMemoryBudget((long) (Runtime.getRuntime().maxMemory() * fraction));
+    }
+
+    synchronized void join(MonteCarloTreeSearch tree) {
+        trees.add(new WeakReference<>(tree, collectedTrees));
+        forgetCollectedTrees();
+    }
+
+    /**
+     * Stop counting the tree, e.g. because its game is over, leaving its share to the others.
+     */
+    public synchronized void leave(MonteCarloTreeSearch tree) {
+        trees.removeIf(reference -> reference.get() == tree);
+        forgetCollectedTrees();
+    }
+
+    private synchronized void forgetCollectedTrees() {
+        while (collectedTrees.poll() != null) {
+            // Drained, the list below is what counts
+        }
+        trees.removeIf(reference -> reference.get() == null);
+        treeCount = trees.size();
+    }
+
+    /**
+     * The share of every tree. Called on every search iteration, so it only takes the lock when a tree was collected.
+     */
+    public long getBytesPerTree() {
+        if (collectedTrees.poll() != null) {
+            forgetCollectedTrees();
+        }
+        return maxBytes / Math.max(1, treeCount);
+    }
+}
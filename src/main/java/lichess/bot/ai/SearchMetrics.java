@@ -0,0 +1,200 @@
+package lichess.bot.ai;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Counters for one run of a {@link MonteCarloTreeSearch}, see {@link MonteCarloTreeSearch#getMetrics()}.
+ *
+ * Only the searching thread records into it, with plain additions, so it costs a handful of nanoseconds per iteration.
+ * Any thread may read it while the search runs; the values read together may then be an iteration apart.
+ */
+public class SearchMetrics {
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private volatile long startNanos = System.nanoTime();
+    private volatile long searchThreadId = -1;
+    private volatile long startAllocatedBytes = -1;
+
+    private volatile long iterations = 0;
+    private volatile long playouts = 0;
+    private volatile long playoutMoves = 0;
+    private volatile long selectionNanos = 0;
+    private volatile long expansionNanos = 0;
+    private volatile long simulationNanos = 0;
+    private volatile long backpropagationNanos = 0;
+    private volatile long treeSize = 0;
+    private volatile int maxDepth = 0;
+    private volatile long cacheLookups = 0;
+    private volatile long cacheHits = 0;
+
+    /**
+     * Start counting from zero for a search run by the calling thread.
+     */
+    void reset() {
+        iterations = 0;
+        playouts = 0;
+        playoutMoves = 0;
+        selectionNanos = 0;
+        expansionNanos = 0;
+        simulationNanos = 0;
+        backpropagationNanos = 0;
+        maxDepth = 0;
+        cacheLookups = 0;
+        cacheHits = 0;
+        searchThreadId = Thread.currentThread().getId();
+        startAllocatedBytes = allocatedBytes(searchThreadId);
+        startNanos = System.nanoTime();
+    }
+
+    void recordIteration(long selectionNanos, long expansionNanos, long simulationNanos, long backpropagationNanos, int depth, long treeSize) {
+        this.selectionNanos += selectionNanos;
+        this.expansionNanos += expansionNanos;
+        this.simulationNanos += simulationNanos;
+        this.backpropagationNanos += backpropagationNanos;
+        if (depth > maxDepth) {
+            maxDepth = depth;
+        }
+        this.treeSize = treeSize;
+        iterations++;
+    }
+
+    void recordPlayout(int moves) {
+        playoutMoves += moves;
+        playouts++;
+    }
+
+    /**
+     * Count a lookup of a position in a cache or table consulted during the search.
+     */
+    void recordCacheLookup(boolean hit) {
+        if (hit) {
+            cacheHits++;
+        }
+        cacheLookups++;
+    }
+
+    public double getElapsedSeconds() {
+        return (System.nanoTime() - startNanos) / 1e9;
+    }
+
+    public long getIterations() {
+        return iterations;
+    }
+
+    public double getIterationsPerSecond() {
+        return perSecond(iterations);
+    }
+
+    public long getPlayouts() {
+        return playouts;
+    }
+
+    public double getPlayoutsPerSecond() {
+        return perSecond(playouts);
+    }
+
+    /**
+     * Average number of random moves per playout, before it ended or was cut off.
+     */
+    public double getMeanPlayoutLength() {
+        long playouts = this.playouts;
+        return playouts > 0 ? playoutMoves / (double) playouts : 0;
+    }
+
+    public double getSelectionMillis() {
+        return selectionNanos / 1e6;
+    }
+
+    public double getExpansionMillis() {
+        return expansionNanos / 1e6;
+    }
+
+    public double getSimulationMillis() {
+        return simulationNanos / 1e6;
+    }
+
+    public double getBackpropagationMillis() {
+        return backpropagationNanos / 1e6;
+    }
+
+    /**
+     * Number of nodes in the tree after the latest iteration.
+     */
+    public long getTreeSize() {
+        return treeSize;
+    }
+
+    /**
+     * Deepest node (in moves below the root) that an iteration has reached.
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public long getCacheLookups() {
+        return cacheLookups;
+    }
+
+    /**
+     * Fraction of cache lookups that found the position, or NaN if there were none.
+     */
+    public double getCacheHitRate() {
+        long lookups = cacheLookups;
+        return lookups > 0 ? cacheHits / (double) lookups : Double.NaN;
+    }
+
+    /**
+     * Bytes allocated per second by the searching thread, or NaN if the JVM does not measure it.
+     */
+    public double getAllocatedBytesPerSecond() {
+        long allocated = allocatedBytes(searchThreadId);
+        if (allocated < 0 || startAllocatedBytes < 0) {
+            return Double.NaN;
+        }
+        return perSecond(allocated - startAllocatedBytes);
+    }
+
+    private double perSecond(long count) {
+        double seconds = getElapsedSeconds();
+        return seconds > 0 ? count / seconds : 0;
+    }
+
+    private static long allocatedBytes(long threadId) {
+        if (threadId < 0 || !(THREADS instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+        if (!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        return threads.getThreadAllocatedBytes(threadId);
+    }
+
+    /**
+     * One line of space separated key=value pairs, meant to be grepped out of the logs and compared between builds.
+     */
+    public String toLogLine() {
+        return "search-metrics" +
+                " elapsed_s=" + String.format("%.3f", getElapsedSeconds()) +
+                " iterations=" + getIterations() +
+                " iterations_per_s=" + String.format("%.0f", getIterationsPerSecond()) +
+                " playouts=" + getPlayouts() +
+                " playouts_per_s=" + String.format("%.0f", getPlayoutsPerSecond()) +
+                " mean_playout_length=" + String.format("%.1f", getMeanPlayoutLength()) +
+                " selection_ms=" + String.format("%.0f", getSelectionMillis()) +
+                " expansion_ms=" + String.format("%.0f", getExpansionMillis()) +
+                " simulation_ms=" + String.format("%.0f", getSimulationMillis()) +
+                " backprop_ms=" + String.format("%.0f", getBackpropagationMillis()) +
+                " tree_size=" + getTreeSize() +
+                " max_depth=" + getMaxDepth() +
+                " cache_lookups=" + getCacheLookups() +
+                " cache_hit_rate=" + String.format("%.3f", getCacheHitRate()) +
+                " alloc_mb_per_s=" + String.format("%.1f", getAllocatedBytesPerSecond() / (1024 * 1024));
+    }
+
+    @Override
+    public String toString() {
+        return toLogLine();
+    }
+}
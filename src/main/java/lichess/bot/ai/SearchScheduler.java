@@ -0,0 +1,149 @@
+package lichess.bot.ai;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shares a fixed number of cores, by default one per available processor, between the searches of all games, so that
+ * many simultaneous games do not oversubscribe the machine. Searches keep their own threads but only run while holding
+ * one of the cores, and hand it on every {@value #SLICE_MILLIS}ms if another search is waiting.
+ *
+ * Waiting searches get a core in order of their deadline, which puts the game with the least time left on its clock
+ * first. Searches without a deadline, such as pondering, come after all that have one, and among themselves the one
+ * that has had the least CPU time goes first. Safe to share between threads and games.
+ */
+public final class SearchScheduler {
+    private static final long SLICE_MILLIS = 50L;
+
+    private final int cores;
+    private final long sliceNanos;
+    private final List<Ticket> waiting = new ArrayList<>();
+    private int freeCores;
+
+    public SearchScheduler() {
+        this(Runtime.getRuntime().availableProcessors(), SLICE_MILLIS);
+    }
+
+    public SearchScheduler(int cores, long sliceMillis) {
+        this.cores = cores;
+        this.freeCores = cores;
+        this.sliceNanos = TimeUnit.MILLISECONDS.toNanos(sliceMillis);
+    }
+
+    public int getCores() {
+        return cores;
+    }
+
+    /**
+     * A new participant, e.g. a game. Its searches run one at a time.
+     */
+    public Ticket newTicket() {
+        return new Ticket();
+    }
+
+    private synchronized void acquire(Ticket ticket) throws InterruptedException {
+        waiting.add(ticket);
+        try {
+            while (freeCores == 0 || next() != ticket) {
+                wait();
+            }
+        } finally {
+            waiting.remove(ticket);
+            notifyAll(); // The next in line may be able to take another free core
+        }
+        freeCores--;
+        ticket.held = true;
+        ticket.sliceStartNanos = System.nanoTime();
+    }
+
+    private synchronized void release(Ticket ticket) {
+        ticket.cpuNanos += System.nanoTime() - ticket.sliceStartNanos;
+        ticket.held = false;
+        freeCores++;
+        notifyAll();
+    }
+
+    private synchronized boolean anyoneWaiting() {
+        return !waiting.isEmpty();
+    }
+
+    private Ticket next() {
+        Ticket next = null;
+        for (Ticket ticket : waiting) {
+            if (next == null || comesBefore(ticket, next)) {
+                next = ticket;
+            }
+        }
+        return next;
+    }
+
+    private static boolean comesBefore(Ticket a, Ticket b) {
+        if (a.deadline != null && b.deadline != null) {
+            return a.deadline.isBefore(b.deadline);
+        }
+        if (a.deadline != null || b.deadline != null) {
+            return a.deadline != null;
+        }
+        return a.cpuNanos < b.cpuNanos;
+    }
+
+    /**
+     * One participant's claim on the cores. Call {@link #acquire()} before searching, {@link #checkpoint()} regularly
+     * while searching and {@link #release()} when done.
+     */
+    public final class Ticket {
+        // Guarded by the scheduler.
+        private Instant deadline = null;
+        private boolean held = false;
+        private long sliceStartNanos;
+        private long cpuNanos = 0;
+
+        /**
+         * The time the current search must be done by, or null for a search that can wait for all that have one.
+         */
+        public void setDeadline(Instant deadline) {
+            synchronized (SearchScheduler.this) {
+                this.deadline = deadline;
+                SearchScheduler.this.notifyAll();
+            }
+        }
+
+        /**
+         * Wait for a core.
+         */
+        public void acquire() throws InterruptedException {
+            SearchScheduler.this.acquire(this);
+        }
+
+        /**
+         * Hand the core on if this ticket's slice is used up and another search is waiting, and wait for a core again.
+         * Cheap enough to call on every search iteration. If interrupted while waiting, the ticket holds no core.
+         */
+        public void checkpoint() throws InterruptedException {
+            if (System.nanoTime() - sliceStartNanos < sliceNanos || !anyoneWaiting()) {
+                return;
+            }
+            SearchScheduler.this.release(this);
+            SearchScheduler.this.acquire(this);
+        }
+
+        /**
+         * Give up the core, if this ticket holds one.
+         */
+        public void release() {
+            synchronized (SearchScheduler.this) {
+                if (held) {
+                    SearchScheduler.this.release(this);
+                }
+            }
+        }
+
+        public long getCpuMillis() {
+            synchronized (SearchScheduler.this) {
+                return TimeUnit.NANOSECONDS.toMillis(cpuNanos);
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package lichess.bot.ai;
+
+import chesslib.Side;
+import chesslib.move.Move;
+
+/**
+ * Consistent view of a search in progress, see {@link MonteCarloTreeSearch#snapshot()}.
+ */
+public class SearchSnapshot {
+    private final Side sideToMove;
+    private final Move bestMove;
+    private final double visitShare;
+    private final double winRate;
+    private final long iterations;
+    private final double iterationsPerSecond;
+    private final boolean solved;
+
+    public SearchSnapshot(Side sideToMove, Move bestMove, double visitShare, double winRate, long iterations, double iterationsPerSecond, boolean solved) {
+        this.sideToMove = sideToMove;
+        this.bestMove = bestMove;
+        this.visitShare = visitShare;
+        this.winRate = winRate;
+        this.iterations = iterations;
+        this.iterationsPerSecond = iterationsPerSecond;
+        this.solved = solved;
+    }
+
+    /**
+     * The side the search is finding a move for.
+     */
+    public Side getSideToMove() {
+        return sideToMove;
+    }
+
+    /**
+     * The strongest move so far, or null if the root has not been expanded yet (or has no moves).
+     */
+    public Move getBestMove() {
+        return bestMove;
+    }
+
+    /**
+     * Fraction of the root's simulations that went through the best move.
+     */
+    public double getVisitShare() {
+        return visitShare;
+    }
+
+    /**
+     * Expected winrate for the side to move after playing the best move.
+     */
+    public double getWinRate() {
+        return winRate;
+    }
+
+    public long getIterations() {
+        return iterations;
+    }
+
+    public double getIterationsPerSecond() {
+        return iterationsPerSecond;
+    }
+
+    /**
+     * Whether the root position is proven won, lost or drawn, so searching on cannot change the result.
+     */
+    public boolean isSolved() {
+        return solved;
+    }
+
+    @Override
+    public String toString() {
+        return "best " + bestMove + " (" + String.format("%.0f", visitShare * 100) + "% of visits, " + String.format("%.1f", winRate * 100) + "% to win)" +
+                ", " + iterations + " iterations at " + String.format("%.0f", iterationsPerSecond) + "/s" + (solved ? ", solved" : "");
+    }
+}
@@ -0,0 +1,107 @@
+package lichess.bot.ai;
+
+import chesslib.move.Move;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+
+/**
+ * Prints the searches in a file written by {@link SearchTraceRecorder}.
+ *
+ * Usage: {@code java lichess.bot.ai.SearchTraceReader <trace file> [fen substring]}
+ */
+public class SearchTraceReader {
+    private static final String PROVEN_VALUES = "?WLD";
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: SearchTraceReader <trace file> [fen substring]");
+            System.exit(1);
+        }
+        render(Paths.get(args[0]), args.length > 1 ? args[1] : null, System.out);
+    }
+
+    /**
+     * Print every search in the file, or only those whose root FEN contains fenFilter if it is not null.
+     */
+    public static void render(Path file, String fenFilter, PrintStream out) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (buffer.remaining() < SearchTraceRecorder.HEADER_BYTES || buffer.getInt() != SearchTraceRecorder.MAGIC) {
+            throw new IOException("Not a search trace: " + file);
+        }
+        int version = buffer.getInt();
+        if (version != SearchTraceRecorder.VERSION) {
+            throw new IOException("Unsupported search trace version " + version);
+        }
+
+        int searches = 0;
+        while (buffer.remaining() >= 4) {
+            int length = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining()) {
+                break; // End of the recorded searches
+            }
+            ByteBuffer record = buffer.slice();
+            record.limit(length);
+            buffer.position(buffer.position() + length);
+
+            if (renderRecord(record, fenFilter, out)) {
+                searches++;
+            }
+        }
+        out.println(searches + " searches");
+    }
+
+    private static boolean renderRecord(ByteBuffer record, String fenFilter, PrintStream out) {
+        long timeMillis = record.getLong();
+        byte[] fenBytes = new byte[record.getShort()];
+        record.get(fenBytes);
+        String fen = new String(fenBytes, StandardCharsets.UTF_8);
+        if (fenFilter != null && !fen.contains(fenFilter)) {
+            return false;
+        }
+
+        short movePlayed = record.getShort();
+        long iterations = record.getLong();
+        long elapsedNanos = record.getLong();
+        long rootVisits = record.getLong();
+        float rootWinrate = record.getFloat();
+        byte rootProvenValue = record.get();
+
+        out.println(Instant.ofEpochMilli(timeMillis) + " " + fen);
+        out.println("  played " + decodeMove(movePlayed) + " after " + iterations + " iterations in " + (elapsedNanos / 1000000) + "ms" +
+                ", root " + PROVEN_VALUES.charAt(rootProvenValue) + " " + String.format("%.1f", rootWinrate * 100) + "% over " + rootVisits + " simulations");
+
+        int rootMoves = record.getShort();
+        for (int i = 0; i < rootMoves; i++) {
+            short move = record.getShort();
+            long visits = record.getLong();
+            float expectedWinrate = record.getFloat();
+            byte provenValue = record.get();
+            out.println(String.format("  %-6s %c %5.1f%% %10d", decodeMove(move), PROVEN_VALUES.charAt(provenValue), expectedWinrate * 100, visits));
+        }
+
+        int pvLength = record.get();
+        StringBuilder principalVariation = new StringBuilder("  pv");
+        for (int i = 0; i < pvLength; i++) {
+            principalVariation.append(' ').append(decodeMove(record.getShort()));
+        }
+        out.println(principalVariation);
+        return true;
+    }
+
+    private static String decodeMove(short encoded) {
+        Move move = MoveCodec.decode(encoded);
+        return move == null ? "none" : move.toString();
+    }
+}
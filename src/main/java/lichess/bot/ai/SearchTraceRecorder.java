@@ -0,0 +1,162 @@
+package lichess.bot.ai;
+
+import chesslib.move.Move;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Appends a compact binary record of every {@link MonteCarloTreeSearch#findBestMove} to a memory-mapped file, for
+ * looking into a bad move after the game with {@link SearchTraceReader}. Install one with
+ * {@link MonteCarloTreeSearch#setTraceRecorder(SearchTraceRecorder)}; without one nothing is recorded.
+ *
+ * The file starts with {@link #MAGIC} and {@link #VERSION}, followed by records that each start with their length in
+ * bytes. A length of 0 marks the end, so a file left behind by a crash can still be read and appended to.
+ *
+ * Record layout, big-endian:
+ * <pre>
+ * long   time (epoch millis)
+ * short  FEN length, then the FEN of the root in UTF-8
+ * short  move played (see MoveCodec)
+ * long   iterations
+ * long   elapsed nanoseconds
+ * long   root visits
+ * float  root winrate for the side to move
+ * byte   root proven value (0 unknown, 1 win, 2 loss, 3 draw, for the side to move)
+ * short  number of root moves, then for each:
+ *        short move, long visits, float expected winrate for the side to move at the root, byte proven value of the
+ *        child (for the side to move in the child)
+ * byte   principal variation length, then a short move for each ply
+ * </pre>
+ */
+public class SearchTraceRecorder implements Closeable {
+    static final int MAGIC = 0x4B5A5452; // "KZTR"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 8;
+    private static final int MAP_CHUNK_BYTES = 1 << 20;
+
+    private final FileChannel channel;
+    private final ByteBuffer record = ByteBuffer.allocate(1 << 16);
+    private MappedByteBuffer mapped;
+    private long mappedStart;
+    private long position;
+
+    /**
+     * Open the trace file, creating it if needed, and continue after its last record.
+     */
+    public SearchTraceRecorder(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (channel.size() < HEADER_BYTES) {
+            map(0, HEADER_BYTES);
+            mapped.putInt(0, MAGIC);
+            mapped.putInt(4, VERSION);
+            position = HEADER_BYTES;
+        } else {
+            position = findEnd();
+        }
+        map(position, 0);
+    }
+
+    private long findEnd() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        channel.read(header, 0);
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            throw new IOException("Not a search trace (version " + VERSION + ")");
+        }
+
+        ByteBuffer length = ByteBuffer.allocate(4);
+        long end = HEADER_BYTES;
+        while (end + 4 <= channel.size()) {
+            length.clear();
+            channel.read(length, end);
+            int recordLength = length.getInt(0);
+            if (recordLength <= 0 || end + 4 + recordLength > channel.size()) {
+                break;
+            }
+            end += 4 + recordLength;
+        }
+        return end;
+    }
+
+    /**
+     * Map a window of the file that starts at from and holds at least the given number of bytes. Searches record from
+     * threads that get interrupted on every move, and mapping on an interrupted thread would close the channel for
+     * good, so the interrupt is put aside while mapping.
+     */
+    private void map(long from, int bytes) throws IOException {
+        boolean interrupted = Thread.interrupted();
+        try {
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_WRITE, from, Math.max(bytes, MAP_CHUNK_BYTES));
+            mapped = window;
+            mappedStart = from;
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Append one search. The root move arrays are parallel, and principalVariation starts with a root move.
+     */
+    synchronized void record(long timeMillis, String fen, Move movePlayed, long iterations, long elapsedNanos,
+                             long rootVisits, double rootWinrate, int rootProvenValue,
+                             Move[] rootMoves, long[] visits, double[] expectedWinrates, int[] provenValues,
+                             List<Move> principalVariation) throws IOException {
+        byte[] fenBytes = fen.getBytes(StandardCharsets.UTF_8);
+        record.clear();
+        record.putLong(timeMillis);
+        record.putShort((short) fenBytes.length);
+        record.put(fenBytes);
+        record.putShort(MoveCodec.encode(movePlayed));
+        record.putLong(iterations);
+        record.putLong(elapsedNanos);
+        record.putLong(rootVisits);
+        record.putFloat((float) rootWinrate);
+        record.put((byte) rootProvenValue);
+
+        record.putShort((short) rootMoves.length);
+        for (int i = 0; i < rootMoves.length; i++) {
+            record.putShort(MoveCodec.encode(rootMoves[i]));
+            record.putLong(visits[i]);
+            record.putFloat((float) expectedWinrates[i]);
+            record.put((byte) provenValues[i]);
+        }
+
+        int pvLength = Math.min(principalVariation.size(), Byte.MAX_VALUE);
+        record.put((byte) pvLength);
+        for (int i = 0; i < pvLength; i++) {
+            record.putShort(MoveCodec.encode(principalVariation.get(i)));
+        }
+        record.flip();
+        append(record);
+    }
+
+    private void append(ByteBuffer body) throws IOException {
+        int length = body.remaining();
+        long offset = position - mappedStart;
+        if (offset + 4 + length > mapped.capacity()) {
+            map(position, 4 + length);
+            offset = 0;
+        }
+
+        // Write the body before its length, so that a reader never sees a length without the record behind it.
+        mapped.position((int) offset + 4);
+        mapped.put(body);
+        mapped.putInt((int) offset, length);
+        position += 4 + length;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        mapped.force();
+        channel.close();
+    }
+}
@@ -0,0 +1,60 @@
+package lichess.bot.ai;
+
+import chesslib.Board;
+
+import java.time.Duration;
+import java.util.function.Function;
+
+/**
+ * Runs short searches over a fixed set of positions until the JIT has compiled move generation and the search, i.e.
+ * until the searches per second level off, so that the first game after a start does not play at interpreted speed.
+ */
+public final class SearchWarmUp {
+    // An opening, a middlegame full of captures, and an endgame with promotions to come.
+    private static final String[] POSITIONS = {
+            "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w - - 0 1",
+            "r1b1kb1r/p1p2ppp/1pn1p3/3p4/3P1B2/2N1PN2/PP3PPP/R3KB1R w - - 0 7",
+            "8/p1p5/1p6/8/4P3/8/PP4P1/8 b - - 0 30",
+    };
+    private static final long MILLIS_PER_POSITION = 200L;
+    private static final int MAX_ROUNDS = 15;
+    // Searches per second have levelled off once a round is within this fraction of the one before.
+    private static final double LEVEL_TOLERANCE = 0.05;
+
+    private SearchWarmUp() {
+    }
+
+    /**
+     * Warm up searches made by newSearch, which should be set up like the ones that will play.
+     *
+     * @return the searches per second of the last round
+     */
+    public static double run(Function<Board, MonteCarloTreeSearch> newSearch) {
+        return run(newSearch, MAX_ROUNDS);
+    }
+
+    static double run(Function<Board, MonteCarloTreeSearch> newSearch, int maxRounds) {
+        long start = System.currentTimeMillis();
+        double previousRate = 0;
+        double rate = 0;
+        for (int round = 1; round <= maxRounds; round++) {
+            long searches = 0;
+            long roundStart = System.nanoTime();
+            for (String fen : POSITIONS) {
+                Board board = new Board();
+                board.loadFromFen(fen);
+                MonteCarloTreeSearch mcts = newSearch.apply(board);
+                mcts.ponder(Duration.ofMillis(MILLIS_PER_POSITION));
+                searches += mcts.snapshot().getIterations();
+            }
+            rate = searches * 1e9 / (System.nanoTime() - roundStart);
+            System.out.println("Warm-up round " + round + ": " + Math.round(rate) + " searches/s");
+            if (round > 1 && Math.abs(rate - previousRate) <= LEVEL_TOLERANCE * previousRate) {
+                break;
+            }
+            previousRate = rate;
+        }
+        System.out.println("Warmed up in " + (System.currentTimeMillis() - start) + "ms");
+        return rate;
+    }
+}
@@ -0,0 +1,136 @@
+package lichess.bot.ai;
+
+import chesslib.Board;
+import chesslib.Piece;
+import chesslib.Side;
+import chesslib.Square;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Looks up endgame positions in the tables written by {@link TablebaseGenerator}. The files are memory-mapped, so a
+ * probe is a few array reads and costs nothing when the position has too many pieces. Safe to share between threads
+ * and games.
+ */
+public class Tablebase {
+    public enum Result {
+        WIN, LOSS, DRAW
+    }
+
+    /**
+     * What the tables hold about a position: the result for the side to move and, for wins and losses, the number of
+     * plies until the game ends with perfect play (the winner hurrying, the loser holding out).
+     */
+    public static class Entry {
+        private final Result result;
+        private final int distance;
+
+        public Entry(Result result, int distance) {
+            this.result = result;
+            this.distance = distance;
+        }
+
+        public Result getResult() {
+            return result;
+        }
+
+        /**
+         * Plies to the end of the game, at most {@value TablebaseFile#MAX_DISTANCE}, and 0 for draws.
+         */
+        public int getDistance() {
+            return distance;
+        }
+    }
+
+    private static final String FILE_SUFFIX = ".kztb";
+
+    private final Map<Long, TablebaseFile> tables;
+    private final int maxPieces;
+
+    private Tablebase(Map<Long, TablebaseFile> tables) {
+        this.tables = tables;
+        this.maxPieces = tables.values().stream().mapToInt(table -> table.getMaterial().getPieceCount()).max().orElse(0);
+    }
+
+    /**
+     * Map every table in the directory. Files that are not tables are skipped.
+     */
+    public static Tablebase open(Path directory) throws IOException {
+        Map<Long, TablebaseFile> tables = new HashMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + FILE_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                TablebaseMaterial material;
+                try {
+                    material = TablebaseMaterial.parse(name.substring(0, name.length() - FILE_SUFFIX.length()));
+                } catch (IllegalArgumentException e) {
+                    continue;
+                }
+                tables.put(material.getKey(), TablebaseFile.open(file, material));
+            }
+        }
+        System.out.println("Loaded " + tables.size() + " tablebase files from " + directory);
+        return new Tablebase(tables);
+    }
+
+    /**
+     * Most pieces in any loaded table. Positions with more pieces are never found.
+     */
+    public int getMaxPieces() {
+        return maxPieces;
+    }
+
+    /**
+     * Whether the position has few enough pieces to be worth probing.
+     */
+    public boolean mayContain(Board board) {
+        return Long.bitCount(board.getBitboard()) <= maxPieces;
+    }
+
+    /**
+     * The result of the position for the side to move with perfect play and its distance, or null if it is not in the
+     * tables. Positions where an en passant capture may be possible are not probed, the tables ignore en passant.
+     */
+    public Entry probe(Board board) {
+        if (!mayContain(board) || board.getEnPassantTarget() != Square.NONE) {
+            return null;
+        }
+
+        long occupied = board.getBitboard();
+        int count = Long.bitCount(occupied);
+        int[] types = new int[count];
+        int[] sides = new int[count];
+        int[] squares = new int[count];
+        int[][] counts = new int[2][6];
+        for (int i = 0; occupied != 0; occupied &= occupied - 1, i++) {
+            int square = Long.numberOfTrailingZeros(occupied);
+            Piece piece = board.getPiece(Square.squareAt(square));
+            types[i] = piece.getPieceType().ordinal();
+            sides[i] = piece.getPieceSide() == Side.WHITE ? 0 : 1;
+            squares[i] = square;
+            counts[sides[i]][types[i]]++;
+        }
+
+        TablebaseFile table = tables.get(TablebaseMaterial.canonicalKeyOf(counts));
+        if (table == null) {
+            return null;
+        }
+
+        int index = table.getMaterial().indexOf(types, sides, squares, count, board.getSideToMove() == Side.WHITE ? 0 : 1);
+        switch (table.wdl(index)) {
+            case TablebaseFile.WIN:
+                return new Entry(Result.WIN, table.distance(index));
+            case TablebaseFile.LOSS:
+                return new Entry(Result.LOSS, table.distance(index));
+            case TablebaseFile.DRAW:
+                return new Entry(Result.DRAW, 0);
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package lichess.bot.ai;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * One tablebase file, holding the result of every position of one material, see {@link TablebaseGenerator}.
+ *
+ * Layout: a header of {@link #MAGIC}, {@link #VERSION}, the material key (long), the number of positions (int) and
+ * the number of won or lost positions (int). Then the win/draw/loss value of every position in 2 bits (four positions
+ * per byte, lowest bits first), padded to whole blocks of {@link #BLOCK_POSITIONS}. Then, per block, the number of won
+ * or lost positions before it (int). Then the distance to the end of the game in plies, capped at 255, in one byte per
+ * won or lost position only, in index order: draws and invalid positions take no distance. Values are for the side to
+ * move.
+ */
+final class TablebaseFile {
+    static final int MAGIC = 0x4B5A5442; // "KZTB"
+    static final int VERSION = 2;
+    private static final int HEADER_BYTES = 24;
+    static final int BLOCK_POSITIONS = 128;
+    private static final int BLOCK_BYTES = BLOCK_POSITIONS / 4;
+    // Lowest bit of every 2-bit value in a long.
+    private static final long LOW_BITS = 0x5555555555555555L;
+
+    static final int DRAW = 0;
+    static final int WIN = 1;
+    static final int LOSS = 2;
+    static final int INVALID = 3;
+
+    static final int MAX_DISTANCE = 255;
+
+    private final TablebaseMaterial material;
+    private final MappedByteBuffer buffer;
+    // The same bytes, read a long at a time in the order the values are packed.
+    private final ByteBuffer longs;
+    private final int blockOffset;
+    private final int distanceOffset;
+
+    private TablebaseFile(TablebaseMaterial material, MappedByteBuffer buffer) {
+        this.material = material;
+        this.buffer = buffer;
+        this.longs = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        this.blockOffset = HEADER_BYTES + blocks(material.getSize()) * BLOCK_BYTES;
+        this.distanceOffset = blockOffset + blocks(material.getSize()) * 4;
+    }
+
+    static String fileName(TablebaseMaterial material) {
+        return material.getName() + ".kztb";
+    }
+
+    private static int blocks(int size) {
+        return (size + BLOCK_POSITIONS - 1) / BLOCK_POSITIONS;
+    }
+
+    private static boolean isDecided(int wdl) {
+        return wdl == WIN || wdl == LOSS;
+    }
+
+    /**
+     * One bit, the lowest of its 2, for every won or lost position in a long of packed values.
+     */
+    private static long decided(long packed) {
+        return (packed ^ packed >>> 1) & LOW_BITS;
+    }
+
+    /**
+     * Map a table into memory. Reading it afterwards needs no locking and no system calls.
+     */
+    static TablebaseFile open(Path file, TablebaseMaterial material) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("Not a tablebase file (version " + VERSION + "): " + file);
+            }
+            int size = material.getSize();
+            if (buffer.getLong(8) != material.getKey() || buffer.getInt(16) != size
+                    || buffer.capacity() != HEADER_BYTES + blocks(size) * (BLOCK_BYTES + 4) + buffer.getInt(20)) {
+                throw new IOException("Tablebase file does not hold " + material + ": " + file);
+            }
+            return new TablebaseFile(material, buffer);
+        }
+    }
+
+    /**
+     * Write a table through a temporary file, so that a table is either complete or missing.
+     *
+     * @param wdl      value of every position, one of DRAW, WIN, LOSS or INVALID
+     * @param distance plies to the end of the game for won and lost positions
+     */
+    static void write(Path file, TablebaseMaterial material, byte[] wdl, short[] distance) throws IOException {
+        int size = material.getSize();
+        byte[] packedWdl = new byte[blocks(size) * BLOCK_BYTES];
+        ByteBuffer blockCounts = ByteBuffer.allocate(blocks(size) * 4);
+        int decided = 0;
+        for (int i = 0; i < size; i++) {
+            packedWdl[i >> 2] |= wdl[i] << ((i & 3) * 2);
+            if (i % BLOCK_POSITIONS == 0) {
+                blockCounts.putInt(decided);
+            }
+            if (isDecided(wdl[i])) {
+                decided++;
+            }
+        }
+        blockCounts.flip();
+
+        byte[] cappedDistance = new byte[decided];
+        for (int i = 0, rank = 0; i < size; i++) {
+            if (isDecided(wdl[i])) {
+                cappedDistance[rank++] = (byte) Math.min(distance[i], MAX_DISTANCE);
+            }
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).putInt(VERSION).putLong(material.getKey()).putInt(size).putInt(decided).flip();
+
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(channel, header);
+            writeFully(channel, ByteBuffer.wrap(packedWdl));
+            writeFully(channel, blockCounts);
+            writeFully(channel, ByteBuffer.wrap(cappedDistance));
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    TablebaseMaterial getMaterial() {
+        return material;
+    }
+
+    /**
+     * DRAW, WIN, LOSS or INVALID for the side to move.
+     */
+    int wdl(int index) {
+        return buffer.get(HEADER_BYTES + (index >> 2)) >> ((index & 3) * 2) & 3;
+    }
+
+    /**
+     * Plies until the game ends in a won or lost position, at most MAX_DISTANCE, and 0 for other positions.
+     */
+    int distance(int index) {
+        if (!isDecided(wdl(index))) {
+            return 0;
+        }
+        // Count the won and lost positions before this one: those before its block, then those in it, 32 per long.
+        int rank = buffer.getInt(blockOffset + index / BLOCK_POSITIONS * 4);
+        int position = index - index % BLOCK_POSITIONS;
+        for (; position + 32 <= index; position += 32) {
+            rank += Long.bitCount(decided(longs.getLong(HEADER_BYTES + position / 4)));
+        }
+        long before = (1L << (index - position) * 2) - 1;
+        rank += Long.bitCount(decided(longs.getLong(HEADER_BYTES + position / 4)) & before);
+        return buffer.get(distanceOffset + rank) & 0xFF;
+    }
+}
@@ -0,0 +1,503 @@
+package lichess.bot.ai;
+
+import chesslib.Bitboard;
+import chesslib.PieceType;
+import chesslib.Side;
+import chesslib.Square;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Builds antichess endgame tablebases by retrograde analysis: the win/draw/loss value and distance to win of every
+ * position with up to {@link #MAX_PIECES} pieces, one {@link TablebaseFile} per material.
+ *
+ * Each table is solved from the positions where the game ends or leaves the material (captures and promotions, looked
+ * up in smaller tables solved before), working backwards through un-moves one distance at a time. Positions that are
+ * never resolved are draws. Tables of the same size and number of pawns do not depend on each other and are solved in
+ * parallel. En passant is ignored, and there is no castling in these endgames.
+ *
+ * Usage: {@code java lichess.bot.ai.TablebaseGenerator <output directory> [max pieces] [threads]}
+ */
+public class TablebaseGenerator {
+    // Above this the index of a table no longer fits in an int.
+    public static final int MAX_PIECES = 4;
+
+    private static final Square[] SQUARES = Square.values();
+    private static final Side[] SIDES = {Side.WHITE, Side.BLACK};
+    private static final int PAWN = PieceType.PAWN.ordinal();
+    private static final int KNIGHT = PieceType.KNIGHT.ordinal();
+    private static final int BISHOP = PieceType.BISHOP.ordinal();
+    private static final int ROOK = PieceType.ROOK.ordinal();
+    private static final int QUEEN = PieceType.QUEEN.ordinal();
+    private static final int KING = PieceType.KING.ordinal();
+    // In antichess a pawn may also promote to a king.
+    private static final int[] PROMOTIONS = {QUEEN, ROOK, BISHOP, KNIGHT, KING};
+
+    private final Path directory;
+    private final int maxPieces;
+    private final int threads;
+    private final Map<Long, TablebaseFile> solved = new ConcurrentHashMap<>();
+
+    public TablebaseGenerator(Path directory, int maxPieces, int threads) {
+        if (maxPieces < 2 || maxPieces > MAX_PIECES) {
+            throw new IllegalArgumentException("Tablebases can have 2 to " + MAX_PIECES + " pieces");
+        }
+        this.directory = directory;
+        this.maxPieces = maxPieces;
+        this.threads = threads;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1) {
+            System.err.println("Usage: TablebaseGenerator <output directory> [max pieces] [threads]");
+            System.exit(1);
+        }
+        int maxPieces = args.length > 1 ? Integer.parseInt(args[1]) : MAX_PIECES;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        new TablebaseGenerator(Paths.get(args[0]), maxPieces, threads).generate();
+    }
+
+    /**
+     * Solve every material that does not have a table in the directory yet.
+     */
+    public void generate() throws IOException, InterruptedException {
+        Files.createDirectories(directory);
+
+        // A table depends on tables with fewer pieces (captures) or fewer pawns (promotions).
+        SortedMap<Integer, List<TablebaseMaterial>> groups = new TreeMap<>();
+        for (TablebaseMaterial material : allMaterials(maxPieces)) {
+            groups.computeIfAbsent(material.getPieceCount() * (MAX_PIECES + 1) + material.getPawnCount(), k -> new ArrayList<>()).add(material);
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            for (List<TablebaseMaterial> group : groups.values()) {
+                List<Future<?>> tasks = new ArrayList<>();
+                for (TablebaseMaterial material : group) {
+                    tasks.add(pool.submit(() -> {
+                        solve(material);
+                        return null;
+                    }));
+                }
+                for (Future<?> task : tasks) {
+                    try {
+                        task.get();
+                    } catch (ExecutionException e) {
+                        throw new IOException("Failed to generate tablebase", e.getCause());
+                    }
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * The canonical materials with at least one piece per side and at most maxPieces in total.
+     */
+    static List<TablebaseMaterial> allMaterials(int maxPieces) {
+        List<TablebaseMaterial> materials = new ArrayList<>();
+        for (int white = 1; white < maxPieces; white++) {
+            for (int black = 1; white + black <= maxPieces; black++) {
+                for (int[] whiteCounts : pieceCounts(white)) {
+                    for (int[] blackCounts : pieceCounts(black)) {
+                        TablebaseMaterial material = TablebaseMaterial.of(new int[][]{whiteCounts, blackCounts});
+                        if (material.isCanonical()) {
+                            materials.add(material);
+                        }
+                    }
+                }
+            }
+        }
+        return materials;
+    }
+
+    /**
+     * Every way to choose the given number of pieces, as counts per PieceType ordinal.
+     */
+    private static List<int[]> pieceCounts(int pieces) {
+        List<int[]> result = new ArrayList<>();
+        addPieceCounts(new int[KING + 1], 0, pieces, result);
+        return result;
+    }
+
+    private static void addPieceCounts(int[] counts, int type, int piecesLeft, List<int[]> result) {
+        if (type == counts.length - 1) {
+            counts[type] = piecesLeft;
+            result.add(counts.clone());
+            return;
+        }
+        for (int count = 0; count <= piecesLeft; count++) {
+            counts[type] = count;
+            addPieceCounts(counts, type + 1, piecesLeft - count, result);
+        }
+    }
+
+    private void solve(TablebaseMaterial material) throws IOException {
+        Path file = directory.resolve(TablebaseFile.fileName(material));
+        if (!Files.exists(file)) {
+            long start = System.currentTimeMillis();
+            Solver solver = new Solver(material);
+            solver.solve();
+            TablebaseFile.write(file, material, solver.wdl(), solver.distance);
+            System.out.println("Solved " + material + " in " + (System.currentTimeMillis() - start) + "ms: " + solver.summary());
+        }
+        solved.put(material.getKey(), TablebaseFile.open(file, material));
+    }
+
+    private static long pieceAttacks(int type, int square, long occupied) {
+        if (type == KNIGHT) {
+            return Bitboard.getKnightAttacks(SQUARES[square], ~0L);
+        } else if (type == BISHOP) {
+            return Bitboard.getBishopAttacks(occupied, SQUARES[square]);
+        } else if (type == ROOK) {
+            return Bitboard.getRookAttacks(occupied, SQUARES[square]);
+        } else if (type == QUEEN) {
+            return Bitboard.getQueenAttacks(occupied, SQUARES[square]);
+        } else {
+            return Bitboard.getKingAttacks(SQUARES[square], ~0L);
+        }
+    }
+
+    /**
+     * Squares a pawn on the given square can have been pushed from, without promoting or capturing.
+     */
+    private static long pawnOrigins(int side, int square, long occupied) {
+        int rank = square >> 3;
+        int forward = side == 0 ? -8 : 8;
+        long origins = 0;
+        if (side == 0 ? rank >= 2 : rank <= 5) {
+            long single = 1L << (square + forward);
+            if ((single & occupied) == 0) {
+                origins |= single;
+                if (rank == (side == 0 ? 3 : 4)) {
+                    long twoSquares = 1L << (square + 2 * forward);
+                    if ((twoSquares & occupied) == 0) {
+                        origins |= twoSquares;
+                    }
+                }
+            }
+        }
+        return origins;
+    }
+
+    /**
+     * Solves one material. Holds a state byte, a distance and an unresolved successor count per position.
+     */
+    private class Solver {
+        private static final int UNKNOWN = 0;
+        private static final int WIN = 1;
+        private static final int LOSS = 2;
+        private static final int DRAW = 3;
+        private static final int INVALID = 4;
+        private static final int RESULT_MASK = 7;
+        // The position can move out of the material into a draw, or into a loss for the opponent.
+        private static final int DRAW_EXIT = 8;
+        private static final int WIN_EXIT = 16;
+        // Every move leaves the material (or there are none), so no position in the table leads here.
+        private static final int EXITS_ONLY = 32;
+
+        private final TablebaseMaterial material;
+        private final int pieceCount;
+        private final byte[] state;
+        // Final distance of won and lost positions, and the longest loss through an exit while unresolved.
+        private final short[] distance;
+        private final byte[] remainingMoves;
+        private final int[] squares;
+        private final List<IntList> wins = new ArrayList<>();
+        private final List<IntList> losses = new ArrayList<>();
+
+        Solver(TablebaseMaterial material) {
+            this.material = material;
+            this.pieceCount = material.getPieceCount();
+            this.state = new byte[material.getSize()];
+            this.distance = new short[material.getSize()];
+            this.remainingMoves = new byte[material.getSize()];
+            this.squares = new int[pieceCount];
+        }
+
+        void solve() {
+            for (int index = 0; index < state.length; index++) {
+                int sideToMove = material.decode(index, squares);
+                if (!material.isValid(squares)) {
+                    state[index] = INVALID;
+                } else {
+                    classify(index, sideToMove);
+                }
+            }
+
+            // Resolve positions in order of distance, so that the first win found for a position is the fastest.
+            for (int level = 0; level < wins.size() || level < losses.size(); level++) {
+                resolveLevel(wins, level, WIN);
+                resolveLevel(losses, level, LOSS);
+            }
+
+            for (int index = 0; index < state.length; index++) {
+                if ((state[index] & RESULT_MASK) == UNKNOWN) {
+                    state[index] = DRAW;
+                }
+            }
+        }
+
+        /**
+         * Look at the moves of a position: end it if it has none, resolve the moves that leave the material, and count
+         * those that stay.
+         */
+        private void classify(int index, int us) {
+            int them = 1 - us;
+            long[] occupied = occupancy();
+            long all = occupied[0] | occupied[1];
+            boolean captures = hasCapture(us, occupied[them], all);
+
+            int moves = 0;
+            int movesInMaterial = 0;
+            int flags = 0;
+            int bestWin = Integer.MAX_VALUE;
+            int longestLoss = 0;
+            for (int slot = 0; slot < pieceCount; slot++) {
+                if (material.slotSide(slot) != us) {
+                    continue;
+                }
+                int type = material.slotType(slot);
+                int from = squares[slot];
+                long targets;
+                if (type == PAWN) {
+                    targets = captures ? Bitboard.getPawnAttacks(SIDES[us], SQUARES[from]) & occupied[them] : Bitboard.getPawnMoves(SIDES[us], SQUARES[from], all);
+                } else {
+                    targets = pieceAttacks(type, from, all) & (captures ? occupied[them] : ~all);
+                }
+
+                for (; targets != 0; targets &= targets - 1) {
+                    int to = Long.numberOfTrailingZeros(targets);
+                    boolean promotion = type == PAWN && (to >> 3) == (us == 0 ? 7 : 0);
+                    if (!captures && !promotion) {
+                        moves++;
+                        movesInMaterial++;
+                        continue;
+                    }
+
+                    int capturedSlot = captures ? slotOn(to) : -1;
+                    for (int newType : promotion ? PROMOTIONS : new int[]{type}) {
+                        moves++;
+                        int child = probeExit(slot, to, capturedSlot, newType, them);
+                        int childResult = child & 3;
+                        int childDistance = child >> 2;
+                        if (childResult == TablebaseFile.LOSS) {
+                            bestWin = Math.min(bestWin, childDistance + 1);
+                        } else if (childResult == TablebaseFile.WIN) {
+                            longestLoss = Math.max(longestLoss, childDistance + 1);
+                        } else {
+                            flags |= DRAW_EXIT;
+                        }
+                    }
+                }
+            }
+
+            if (moves == 0) {
+                // Having no moves wins in antichess.
+                state[index] = EXITS_ONLY;
+                push(wins, 0, index);
+            } else if (bestWin != Integer.MAX_VALUE) {
+                state[index] = (byte) (flags | WIN_EXIT | (movesInMaterial == 0 ? EXITS_ONLY : 0));
+                remainingMoves[index] = (byte) movesInMaterial;
+                push(wins, bestWin, index);
+            } else if (movesInMaterial == 0) {
+                if ((flags & DRAW_EXIT) != 0) {
+                    state[index] = DRAW | EXITS_ONLY;
+                } else {
+                    state[index] = EXITS_ONLY;
+                    push(losses, longestLoss, index);
+                }
+            } else {
+                state[index] = (byte) flags;
+                remainingMoves[index] = (byte) movesInMaterial;
+                distance[index] = (short) longestLoss;
+            }
+        }
+
+        private void resolveLevel(List<IntList> buckets, int level, int result) {
+            if (level >= buckets.size()) {
+                return;
+            }
+            IntList bucket = buckets.get(level);
+            for (int i = 0; i < bucket.size; i++) {
+                int index = bucket.values[i];
+                if ((state[index] & RESULT_MASK) != UNKNOWN) {
+                    continue; // Already resolved at a lower distance
+                }
+                state[index] = (byte) (state[index] & ~RESULT_MASK | result);
+                distance[index] = (short) level;
+                updatePredecessors(index, result, level);
+            }
+            buckets.set(level, null); // Done with it
+        }
+
+        /**
+         * Tell every position that leads here with a move inside the material that this position is now resolved.
+         */
+        private void updatePredecessors(int index, int result, int level) {
+            int mover = 1 - material.decode(index, squares);
+            long[] occupied = occupancy();
+            long all = occupied[0] | occupied[1];
+
+            for (int slot = 0; slot < pieceCount; slot++) {
+                if (material.slotSide(slot) != mover) {
+                    continue;
+                }
+                int type = material.slotType(slot);
+                int square = squares[slot];
+                long origins = type == PAWN ? pawnOrigins(mover, square, all) : pieceAttacks(type, square, all) & ~all;
+                for (; origins != 0; origins &= origins - 1) {
+                    squares[slot] = Long.numberOfTrailingZeros(origins);
+                    int predecessor = material.index(squares, mover);
+                    squares[slot] = square;
+                    updatePredecessor(predecessor, result, level);
+                }
+            }
+        }
+
+        private void updatePredecessor(int predecessor, int childResult, int level) {
+            int predecessorState = state[predecessor];
+            if ((predecessorState & RESULT_MASK) != UNKNOWN || (predecessorState & EXITS_ONLY) != 0) {
+                return; // Resolved, or the move was not legal there because it has captures
+            }
+
+            if (childResult == LOSS) {
+                push(wins, level + 1, predecessor);
+            } else if (--remainingMoves[predecessor] == 0 && (predecessorState & WIN_EXIT) == 0) {
+                // Every move loses, unless one leaves the material into a draw.
+                if ((predecessorState & DRAW_EXIT) != 0) {
+                    state[predecessor] = (byte) (predecessorState | DRAW);
+                } else {
+                    push(losses, Math.max(level + 1, distance[predecessor]), predecessor);
+                }
+            }
+        }
+
+        private void push(List<IntList> buckets, int level, int index) {
+            while (buckets.size() <= level) {
+                buckets.add(new IntList());
+            }
+            buckets.get(level).add(index);
+        }
+
+        private long[] occupancy() {
+            long[] occupied = new long[2];
+            for (int slot = 0; slot < pieceCount; slot++) {
+                occupied[material.slotSide(slot)] |= 1L << squares[slot];
+            }
+            return occupied;
+        }
+
+        private boolean hasCapture(int us, long theirs, long all) {
+            for (int slot = 0; slot < pieceCount; slot++) {
+                if (material.slotSide(slot) != us) {
+                    continue;
+                }
+                int type = material.slotType(slot);
+                long attacks = type == PAWN ? Bitboard.getPawnAttacks(SIDES[us], SQUARES[squares[slot]]) : pieceAttacks(type, squares[slot], all);
+                if ((attacks & theirs) != 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private int slotOn(int square) {
+            for (int slot = 0; slot < pieceCount; slot++) {
+                if (squares[slot] == square) {
+                    return slot;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Result of a move that leaves the material, from the solved table it leads to, for the side to move there.
+         *
+         * @return the TablebaseFile result in the lowest 2 bits, the distance above them
+         */
+        private int probeExit(int moverSlot, int to, int capturedSlot, int newType, int childSideToMove) {
+            int[] types = new int[pieceCount];
+            int[] sides = new int[pieceCount];
+            int[] childSquares = new int[pieceCount];
+            int[][] counts = new int[2][KING + 1];
+            int count = 0;
+            for (int slot = 0; slot < pieceCount; slot++) {
+                if (slot == capturedSlot) {
+                    continue;
+                }
+                types[count] = slot == moverSlot ? newType : material.slotType(slot);
+                sides[count] = material.slotSide(slot);
+                childSquares[count] = slot == moverSlot ? to : squares[slot];
+                counts[sides[count]][types[count]]++;
+                count++;
+            }
+
+            if (Arrays.stream(counts[childSideToMove]).sum() == 0) {
+                return TablebaseFile.WIN; // Lost every piece, which wins at once
+            }
+
+            TablebaseFile table = solved.get(TablebaseMaterial.canonicalKeyOf(counts));
+            if (table == null) {
+                throw new IllegalStateException("Table for " + TablebaseMaterial.of(counts) + " is needed before " + material);
+            }
+            int index = table.getMaterial().indexOf(types, sides, childSquares, count, childSideToMove);
+            return table.wdl(index) | table.distance(index) << 2;
+        }
+
+        /**
+         * The values as stored in the file.
+         */
+        byte[] wdl() {
+            byte[] wdl = new byte[state.length];
+            for (int index = 0; index < state.length; index++) {
+                switch (state[index] & RESULT_MASK) {
+                    case WIN:
+                        wdl[index] = TablebaseFile.WIN;
+                        break;
+                    case LOSS:
+                        wdl[index] = TablebaseFile.LOSS;
+                        break;
+                    case INVALID:
+                        wdl[index] = TablebaseFile.INVALID;
+                        break;
+                    default:
+                        wdl[index] = TablebaseFile.DRAW;
+                        break;
+                }
+            }
+            return wdl;
+        }
+
+        String summary() {
+            int[] results = new int[RESULT_MASK + 1];
+            int longestWin = 0;
+            for (int index = 0; index < state.length; index++) {
+                int result = state[index] & RESULT_MASK;
+                results[result]++;
+                if (result == WIN) {
+                    longestWin = Math.max(longestWin, distance[index]);
+                }
+            }
+            return results[WIN] + " wins, " + results[LOSS] + " losses, " + results[DRAW] + " draws, longest win " + longestWin + " plies";
+        }
+    }
+
+    private static class IntList {
+        private int[] values = new int[16];
+        private int size = 0;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+}
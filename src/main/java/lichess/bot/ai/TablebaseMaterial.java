@@ -0,0 +1,382 @@
+package lichess.bot.ai;
+
+import chesslib.PieceType;
+
+import java.util.Arrays;
+
+/**
+ * The pieces of an endgame tablebase, e.g. KRvN, and how positions with those pieces are numbered.
+ *
+ * Pieces are assigned to slots: white pieces first, then black, each strongest first (king, queen, rook, bishop,
+ * knight, pawn). A position is the square of every slot plus the side to move. Only one colour orientation of each
+ * material gets a table: the canonical one, where white has more pieces, or the same number of stronger ones. Positions
+ * of the other orientation are looked up with colours swapped and the board turned around.
+ *
+ * Within a table, slots holding the same kind of piece form a group whose squares are numbered as a set, in the
+ * combinatorial number system, so swapping two identical pieces gives the same index. Pawns are only numbered on ranks
+ * 2 to 7. When the first group is a single piece, positions are mirrored left to right so that it is always on files
+ * a to d, which halves the index.
+ */
+public final class TablebaseMaterial {
+    // Letters of the piece types, indexed by PieceType ordinal.
+    private static final String LETTERS = "PNBRQK";
+    private static final int PAWN = PieceType.PAWN.ordinal();
+    private static final int PIECE_TYPES = 6;
+    private static final int COUNT_BITS = 3;
+    // Binomial coefficients C(n, k) for n up to 64, for numbering the squares of a group.
+    private static final int[][] BINOMIALS = new int[65][8];
+
+    static {
+        for (int n = 0; n <= 64; n++) {
+            BINOMIALS[n][0] = 1;
+            for (int k = 1; k < 8 && k <= n; k++) {
+                BINOMIALS[n][k] = BINOMIALS[n - 1][k - 1] + BINOMIALS[n - 1][k];
+            }
+        }
+    }
+
+    private final int[][] counts;
+    private final int[] slotTypes;
+    private final int[] slotSides;
+    private final int whiteCount;
+    private final int pawnCount;
+    // Groups of slots with the same piece: first slot, number of slots, and number of ways to place them.
+    private final int[] groupStarts;
+    private final int[] groupCounts;
+    private final int[] groupSizes;
+    private final int[] groupMultipliers;
+    // Number of every square among the squares the pieces of a group can be on.
+    private final int[][] squareNumbers;
+    // What a piece on every square adds to the index, per group of a single piece.
+    private final int[][] slotIndexes;
+    // Squares of the pieces of a group for every rank, 6 bits each, lowest first.
+    private final int[][] rankSquares;
+    private final boolean mirrored;
+    private final int size;
+
+    private TablebaseMaterial(int[][] counts) {
+        this.counts = counts;
+        int pieces = 0;
+        int pawns = 0;
+        for (int side = 0; side < 2; side++) {
+            for (int type = 0; type < PIECE_TYPES; type++) {
+                pieces += counts[side][type];
+            }
+            pawns += counts[side][PAWN];
+        }
+
+        slotTypes = new int[pieces];
+        slotSides = new int[pieces];
+        int slot = 0;
+        for (int side = 0; side < 2; side++) {
+            for (int type = PIECE_TYPES - 1; type >= 0; type--) {
+                for (int i = 0; i < counts[side][type]; i++) {
+                    slotTypes[slot] = type;
+                    slotSides[slot] = side;
+                    slot++;
+                }
+            }
+        }
+        whiteCount = sideCount(counts[0]);
+        pawnCount = pawns;
+
+        int groups = 0;
+        for (slot = 0; slot < pieces; slot++) {
+            if (slot == 0 || !sameGroup(slot - 1, slot)) {
+                groups++;
+            }
+        }
+        groupStarts = new int[groups];
+        groupCounts = new int[groups];
+        groupSizes = new int[groups];
+        int group = -1;
+        for (slot = 0; slot < pieces; slot++) {
+            if (slot == 0 || !sameGroup(slot - 1, slot)) {
+                groupStarts[++group] = slot;
+            }
+            groupCounts[group]++;
+        }
+        mirrored = groupCounts[0] == 1;
+        groupMultipliers = new int[groups];
+        squareNumbers = new int[groups][64];
+        rankSquares = new int[groups][];
+        int positions = 2;
+        for (group = 0; group < groups; group++) {
+            groupSizes[group] = BINOMIALS[files(group) * ranks(group)][groupCounts[group]];
+            groupMultipliers[group] = positions / 2;
+            positions *= groupSizes[group];
+            for (int square = 0; square < 64; square++) {
+                squareNumbers[group][square] = ((square >> 3) - firstRank(group)) * files(group) + (square & 7);
+            }
+            rankSquares[group] = new int[groupSizes[group]];
+            addRankSquares(group, 0, 0, 0);
+        }
+        slotIndexes = new int[pieces][64];
+        for (group = 0; group < groups; group++) {
+            for (int square = 0; square < 64; square++) {
+                slotIndexes[groupStarts[group]][square] = squareNumbers[group][square] * groupMultipliers[group];
+            }
+        }
+        size = positions;
+    }
+
+    /**
+     * Fill in rankSquares for every set of squares of a group that has the given squares below the given number.
+     */
+    private void addRankSquares(int group, int piece, int number, int squares) {
+        if (piece == groupCounts[group]) {
+            int[] slotSquares = new int[slotTypes.length];
+            for (int i = 0; i < piece; i++) {
+                slotSquares[groupStarts[group] + i] = squares >> 6 * i & 63;
+            }
+            rankSquares[group][setRank(group, slotSquares, 0)] = squares;
+            return;
+        }
+        for (; number < files(group) * ranks(group); number++) {
+            int square = (number / files(group) + firstRank(group)) * 8 + number % files(group);
+            addRankSquares(group, piece + 1, number + 1, squares | square << 6 * piece);
+        }
+    }
+
+    private boolean sameGroup(int slot, int otherSlot) {
+        return slotTypes[slot] == slotTypes[otherSlot] && slotSides[slot] == slotSides[otherSlot];
+    }
+
+    /**
+     * @param counts number of pieces per side (0 white, 1 black) and PieceType ordinal
+     */
+    public static TablebaseMaterial of(int[][] counts) {
+        return new TablebaseMaterial(new int[][]{counts[0].clone(), counts[1].clone()});
+    }
+
+    /**
+     * Parse a name such as "KRvN".
+     */
+    public static TablebaseMaterial parse(String name) {
+        String[] sides = name.toUpperCase().split("V");
+        if (sides.length != 2) {
+            throw new IllegalArgumentException("Not a material name: " + name);
+        }
+        int[][] counts = new int[2][PIECE_TYPES];
+        for (int side = 0; side < 2; side++) {
+            for (char letter : sides[side].toCharArray()) {
+                int type = LETTERS.indexOf(letter);
+                if (type < 0) {
+                    throw new IllegalArgumentException("Not a material name: " + name);
+                }
+                counts[side][type]++;
+            }
+        }
+        return new TablebaseMaterial(counts);
+    }
+
+    /**
+     * Key that identifies the material (in this orientation), for looking tables up without building names.
+     */
+    public static long keyOf(int[][] counts) {
+        long key = 0;
+        for (int side = 0; side < 2; side++) {
+            for (int type = 0; type < PIECE_TYPES; type++) {
+                key |= (long) counts[side][type] << COUNT_BITS * (side * PIECE_TYPES + type);
+            }
+        }
+        return key;
+    }
+
+    /**
+     * Key of the canonical orientation of the given material.
+     */
+    public static long canonicalKeyOf(int[][] counts) {
+        return isCanonical(counts) ? keyOf(counts) : keyOf(new int[][]{counts[1], counts[0]});
+    }
+
+    private static boolean isCanonical(int[][] counts) {
+        int white = sideCount(counts[0]);
+        int black = sideCount(counts[1]);
+        if (white != black) {
+            return white > black;
+        }
+        for (int type = PIECE_TYPES - 1; type >= 0; type--) {
+            if (counts[0][type] != counts[1][type]) {
+                return counts[0][type] > counts[1][type];
+            }
+        }
+        return true;
+    }
+
+    private static int sideCount(int[] sideCounts) {
+        int count = 0;
+        for (int c : sideCounts) {
+            count += c;
+        }
+        return count;
+    }
+
+    public long getKey() {
+        return keyOf(counts);
+    }
+
+    public boolean isCanonical() {
+        return isCanonical(counts);
+    }
+
+    public String getName() {
+        StringBuilder name = new StringBuilder();
+        for (int slot = 0; slot < slotTypes.length; slot++) {
+            if (slot == whiteCount) {
+                name.append('v');
+            }
+            name.append(LETTERS.charAt(slotTypes[slot]));
+        }
+        return name.toString();
+    }
+
+    public int getPieceCount() {
+        return slotTypes.length;
+    }
+
+    public int getPawnCount() {
+        return pawnCount;
+    }
+
+    /**
+     * Number of positions in the table, valid or not.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * PieceType ordinal of the piece in a slot.
+     */
+    int slotType(int slot) {
+        return slotTypes[slot];
+    }
+
+    /**
+     * Colour of the piece in a slot, 0 for white and 1 for black.
+     */
+    int slotSide(int slot) {
+        return slotSides[slot];
+    }
+
+    /**
+     * Index of a position, given the square (0 for a1 to 63 for h8) of every slot. Mirrors the position if needed.
+     */
+    int index(int[] slotSquares, int sideToMove) {
+        int mirror = mirrored && (slotSquares[0] & 7) >= 4 ? 7 : 0;
+        int index = 0;
+        for (int group = 0; group < groupStarts.length; group++) {
+            int start = groupStarts[group];
+            index += groupCounts[group] == 1 ? slotIndexes[start][slotSquares[start] ^ mirror] : setRank(group, slotSquares, mirror) * groupMultipliers[group];
+        }
+        return index * 2 + sideToMove;
+    }
+
+    /**
+     * The rank of the squares of a group as a set: the sum of C(c, i + 1) over their numbers c, the i-th smallest first.
+     */
+    private int setRank(int group, int[] slotSquares, int mirror) {
+        int[] numbers = squareNumbers[group];
+        int start = groupStarts[group];
+        int end = start + groupCounts[group];
+        int rank = 0;
+        for (int slot = start; slot < end; slot++) {
+            int number = numbers[slotSquares[slot] ^ mirror];
+            int smaller = 0;
+            for (int other = start; other < end; other++) {
+                if (numbers[slotSquares[other] ^ mirror] < number) {
+                    smaller++;
+                }
+            }
+            rank += BINOMIALS[number][smaller + 1];
+        }
+        return rank;
+    }
+
+    /**
+     * Fill in the square of every slot for the given index and return the side to move. The slots of a group get their
+     * squares in increasing order.
+     */
+    int decode(int index, int[] slotSquares) {
+        int rest = index >> 1;
+        for (int group = 0; group < groupStarts.length; group++) {
+            int size = groupSizes[group];
+            int squares;
+            if ((size & size - 1) == 0) {
+                squares = rankSquares[group][rest & size - 1];
+                rest >>= Integer.numberOfTrailingZeros(size);
+            } else {
+                squares = rankSquares[group][rest % size];
+                rest /= size;
+            }
+            for (int slot = groupStarts[group]; slot < groupStarts[group] + groupCounts[group]; slot++, squares >>= 6) {
+                slotSquares[slot] = squares & 63;
+            }
+        }
+        return index & 1;
+    }
+
+    private int files(int group) {
+        return group == 0 && mirrored ? 4 : 8;
+    }
+
+    private int ranks(int group) {
+        return 8 - 2 * firstRank(group);
+    }
+
+    private int firstRank(int group) {
+        return slotTypes[groupStarts[group]] == PAWN ? 1 : 0;
+    }
+
+    /**
+     * Whether the squares describe a position, that is no two pieces are on one square.
+     */
+    boolean isValid(int[] slotSquares) {
+        long occupied = 0;
+        for (int slot = 0; slot < slotTypes.length; slot++) {
+            long bit = 1L << slotSquares[slot];
+            if ((occupied & bit) != 0) {
+                return false;
+            }
+            occupied |= bit;
+        }
+        return true;
+    }
+
+    /**
+     * Index of arbitrary pieces in this table, which must belong to their material or to its colour flip.
+     *
+     * @param types     PieceType ordinal of each piece, in any order
+     * @param sides     colour of each piece, 0 for white and 1 for black
+     * @param squares   square of each piece, 0 for a1 to 63 for h8
+     */
+    int indexOf(int[] types, int[] sides, int[] squares, int count, int sideToMove) {
+        // Colours are swapped when the white pieces given are not the white pieces of this table.
+        int[] whiteCounts = new int[PIECE_TYPES];
+        for (int i = 0; i < count; i++) {
+            if (sides[i] == 0) {
+                whiteCounts[types[i]]++;
+            }
+        }
+        int flip = Arrays.equals(whiteCounts, counts[0]) ? 0 : 1;
+
+        int[] slotSquares = new int[slotTypes.length];
+        boolean[] used = new boolean[count];
+        for (int slot = 0; slot < slotTypes.length; slot++) {
+            for (int i = 0; i < count; i++) {
+                if (!used[i] && types[i] == slotTypes[slot] && (sides[i] ^ flip) == slotSides[slot]) {
+                    used[i] = true;
+                    slotSquares[slot] = flip == 1 ? squares[i] ^ 56 : squares[i];
+                    break;
+                }
+            }
+        }
+        return index(slotSquares, sideToMove ^ flip);
+    }
+
+    @Override
+    public String toString() {
+        return getName();
+    }
+}
@@ -0,0 +1,104 @@
+package lichess.bot.ai;
+
+import chesslib.Bitboard;
+import chesslib.Board;
+import chesslib.Piece;
+import chesslib.PieceType;
+import chesslib.Side;
+import chesslib.Square;
+
+/**
+ * Tells whether a position ends the game, straight from the bitboards: no move lists, no board copies. Shared by
+ * every search, which ask it at each ply of every playout and for every node they create.
+ */
+public final class TerminalClassifier {
+    /**
+     * The result of a position for the side to move.
+     */
+    public enum Outcome {
+        WIN, LOSS, DRAW, ONGOING
+    }
+
+    private TerminalClassifier() {
+    }
+
+    public static Outcome classify(Board board) {
+        Side sideToMove = board.getSideToMove();
+        long mine = board.getBitboard(sideToMove);
+        if (mine == 0 || !canMove(board, sideToMove, board.getBitboard(), mine, board.getEnPassantTarget())) {
+            return Outcome.WIN; // The side to move has no pieces or cannot move
+        }
+        if (board.getBitboard(sideToMove.flip()) == 0) {
+            return Outcome.LOSS; // Only from a set up position: the opponent won before it was our turn
+        }
+        if (isOppositeColoredBishopsDraw(board)) {
+            return Outcome.DRAW;
+        }
+        return Outcome.ONGOING;
+    }
+
+    /**
+     * Each side has one bishop, on opposite colors, and everything else is frozen for good: every other piece of a side
+     * stands on its own bishop's color (so neither bishop ever has anything to capture or anything to be captured by)
+     * and cannot move even with the bishops gone. If both bishops can move, they then shuffle forever.
+     */
+    static boolean isOppositeColoredBishopsDraw(Board board) {
+        long whiteBishop = board.getBitboard(Piece.WHITE_BISHOP);
+        long blackBishop = board.getBitboard(Piece.BLACK_BISHOP);
+        if (Long.bitCount(whiteBishop) != 1 || Long.bitCount(blackBishop) != 1) {
+            return false;
+        }
+        long whiteColor = (whiteBishop & Bitboard.lightSquares) != 0 ? Bitboard.lightSquares : Bitboard.darkSquares;
+        if ((blackBishop & whiteColor) != 0) {
+            return false;
+        }
+
+        long white = board.getBitboard(Side.WHITE) & ~whiteBishop;
+        long black = board.getBitboard(Side.BLACK) & ~blackBishop;
+        if ((white & ~whiteColor) != 0 || (black & whiteColor) != 0) {
+            return false;
+        }
+
+        long withoutBishops = white | black;
+        Square whiteEnPassant = board.getSideToMove() == Side.WHITE ? board.getEnPassantTarget() : Square.NONE;
+        Square blackEnPassant = board.getSideToMove() == Side.BLACK ? board.getEnPassantTarget() : Square.NONE;
+        long occupied = board.getBitboard();
+        return !canMove(board, Side.WHITE, withoutBishops, white, whiteEnPassant)
+                && !canMove(board, Side.BLACK, withoutBishops, black, blackEnPassant)
+                && canMove(board, Side.WHITE, occupied, whiteBishop, Square.NONE)
+                && canMove(board, Side.BLACK, occupied, blackBishop, Square.NONE);
+    }
+
+    /**
+     * Whether any of the given pieces of side has a move on a board with only the occupied squares filled.
+     */
+    private static boolean canMove(Board board, Side side, long occupied, long pieces, Square enPassant) {
+        long own = board.getBitboard(side) & occupied;
+        for (; pieces != 0; pieces &= pieces - 1) {
+            Square square = Square.squareAt(Long.numberOfTrailingZeros(pieces));
+            if (targets(board.getPiece(square).getPieceType(), side, square, occupied, own, enPassant) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long targets(PieceType type, Side side, Square square, long occupied, long own, Square enPassant) {
+        switch (type) {
+            case PAWN:
+                return Bitboard.getPawnMoves(side, square, occupied) | Bitboard.getPawnCaptures(side, square, occupied, enPassant) & ~own;
+            case KNIGHT:
+                return Bitboard.getKnightAttacks(square, ~own);
+            case BISHOP:
+                return Bitboard.getBishopAttacks(occupied, square) & ~own;
+            case ROOK:
+                return Bitboard.getRookAttacks(occupied, square) & ~own;
+            case QUEEN:
+                return Bitboard.getQueenAttacks(occupied, square) & ~own;
+            case KING:
+                return Bitboard.getKingAttacks(square, ~own);
+            default:
+                return 0;
+        }
+    }
+}
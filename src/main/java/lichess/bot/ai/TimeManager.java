@@ -0,0 +1,125 @@
+package lichess.bot.ai;
+
+import chesslib.move.Move;
+
+import java.time.Duration;
+
+/**
+ * Budgets the time for one move from the clock. The search may stop once the soft deadline passes and must stop at the
+ * hard deadline. The soft deadline stretches while the best move keeps changing and shrinks once one move has clearly
+ * won the search, see {@link #shouldStop(SearchSnapshot)}. Make a new one for every move.
+ */
+public final class TimeManager {
+    // Kept off every move for network and server lag, so that we do not flag with a move in hand.
+    private static final long MOVE_OVERHEAD_MILLIS = 150L;
+    // Antichess games are short: plan for this many moves of ours in a game, and never for fewer than MIN_MOVES_TO_GO.
+    private static final int EXPECTED_GAME_MOVES = 35;
+    private static final int MIN_MOVES_TO_GO = 10;
+    // No move may take more than this fraction of the clock, nor the soft deadline more than HARD_TO_SOFT_RATIO less.
+    private static final long MAX_CLOCK_FRACTION_DIVISOR = 4;
+    private static final long HARD_TO_SOFT_RATIO = 3;
+    // Without a clock (e.g. correspondence), every move gets a fixed time.
+    private static final long UNTIMED_MOVE_MILLIS = 20000L;
+    // Every best move change stretches the soft deadline by this fraction, decaying by VOLATILITY_DECAY per snapshot.
+    private static final double BEST_MOVE_CHANGE_WEIGHT = 0.5;
+    private static final double VOLATILITY_DECAY = 0.9;
+    // A best move with this share of the visits is clear, and stops the search at CLEAR_BEST_MOVE_FACTOR of the soft deadline.
+    private static final double CLEAR_BEST_MOVE_VISIT_SHARE = 0.5;
+    private static final double CLEAR_BEST_MOVE_FACTOR = 0.5;
+
+    private final long startNanos = System.nanoTime();
+    private final long softMillis;
+    private final long hardMillis;
+    private final boolean timed;
+    private Move lastBestMove = null;
+    private double volatility = 0;
+
+    private TimeManager(long softMillis, long hardMillis, boolean timed) {
+        this.softMillis = softMillis;
+        this.hardMillis = hardMillis;
+        this.timed = timed;
+    }
+
+    /**
+     * @param timeLeftMillis  our time left on the clock, or 0 or less if the game has no clock
+     * @param incrementMillis our increment per move
+     * @param movesMade       the number of moves we have made in this game
+     */
+    public static TimeManager forMove(long timeLeftMillis, long incrementMillis, int movesMade) {
+        if (timeLeftMillis <= 0) {
+            return new TimeManager(UNTIMED_MOVE_MILLIS, UNTIMED_MOVE_MILLIS, false);
+        }
+
+        long availableMillis = Math.max(0, timeLeftMillis - MOVE_OVERHEAD_MILLIS);
+        int movesToGo = Math.max(MIN_MOVES_TO_GO, EXPECTED_GAME_MOVES - movesMade);
+        long softMillis = availableMillis / movesToGo + incrementMillis * 3 / 4;
+        long hardMillis = Math.min(softMillis * HARD_TO_SOFT_RATIO, availableMillis / MAX_CLOCK_FRACTION_DIVISOR);
+        return new TimeManager(Math.min(softMillis, hardMillis), hardMillis, true);
+    }
+
+    /**
+     * Whether the game has a clock. Without one, every move gets the same time.
+     */
+    public boolean isTimed() {
+        return timed;
+    }
+
+    public Duration getSoftLimit() {
+        return Duration.ofMillis(softMillis);
+    }
+
+    public Duration getHardLimit() {
+        return Duration.ofMillis(hardMillis);
+    }
+
+    /**
+     * The time left until the soft deadline, or zero once it has passed.
+     */
+    public Duration remainingSoft() {
+        return Duration.ofMillis(Math.max(0, softMillis - elapsedMillis()));
+    }
+
+    /**
+     * The time left until the hard deadline, or zero once it has passed.
+     */
+    public Duration remainingHard() {
+        return Duration.ofMillis(Math.max(0, hardMillis - elapsedMillis()));
+    }
+
+    /**
+     * Whether to stop the search that produced snapshot now. Call it with every snapshot, in order, as it also
+     * tracks how often the best move changes.
+     */
+    public boolean shouldStop(SearchSnapshot snapshot) {
+        return shouldStop(snapshot, elapsedMillis());
+    }
+
+    synchronized boolean shouldStop(SearchSnapshot snapshot, long elapsedMillis) {
+        volatility *= VOLATILITY_DECAY;
+        Move bestMove = snapshot.getBestMove();
+        if (bestMove != null && lastBestMove != null && !bestMove.equals(lastBestMove)) {
+            volatility += 1;
+        }
+        if (bestMove != null) {
+            lastBestMove = bestMove;
+        }
+
+        if (elapsedMillis >= hardMillis || snapshot.isSolved()) {
+            return true;
+        }
+        double scale = 1 + BEST_MOVE_CHANGE_WEIGHT * volatility;
+        if (snapshot.getVisitShare() >= CLEAR_BEST_MOVE_VISIT_SHARE) {
+            scale *= CLEAR_BEST_MOVE_FACTOR;
+        }
+        return elapsedMillis >= softMillis * scale;
+    }
+
+    private long elapsedMillis() {
+        return (System.nanoTime() - startNanos) / 1000000;
+    }
+
+    @Override
+    public String toString() {
+        return "soft " + softMillis + "ms, hard " + hardMillis + "ms";
+    }
+}
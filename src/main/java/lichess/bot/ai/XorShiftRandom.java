@@ -0,0 +1,70 @@
+package lichess.bot.ai;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fast, non-cryptographic random number generator for searches and playouts, using xorshift64*
+ * (https://en.wikipedia.org/wiki/Xorshift#xorshift*).
+ *
+ * Unlike {@link java.security.SecureRandom} or {@link Random} it keeps no shared or synchronized state, so an instance
+ * must only be used by one thread at a time. Use {@link #current()} for a per-thread instance, or construct one with an
+ * explicit seed to make a search reproducible.
+ */
+public class XorShiftRandom extends Random {
+    private static final long serialVersionUID = 1L;
+    private static final AtomicLong SEED_UNIQUIFIER = new AtomicLong(0x2545F4914F6CDD1DL);
+    private static final ThreadLocal<XorShiftRandom> PER_THREAD = ThreadLocal.withInitial(XorShiftRandom::new);
+
+    private long state;
+
+    public XorShiftRandom() {
+        this(SEED_UNIQUIFIER.getAndAdd(0x9E3779B97F4A7C15L) ^ System.nanoTime());
+    }
+
+    public XorShiftRandom(long seed) {
+        super(seed); // Calls setSeed(seed)
+    }
+
+    /**
+     * The generator belonging to the calling thread.
+     */
+    public static XorShiftRandom current() {
+        return PER_THREAD.get();
+    }
+
+    @Override
+    public void setSeed(long seed) {
+        // Run the seed through a splitmix64 step so that similar seeds give unrelated sequences, and never start at 0
+        // (the one state xorshift cannot leave).
+        long z = seed + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z = z ^ (z >>> 31);
+        state = z == 0 ? 0x9E3779B97F4A7C15L : z;
+    }
+
+    @Override
+    public long nextLong() {
+        long x = state;
+        x ^= x >>> 12;
+        x ^= x << 25;
+        x ^= x >>> 27;
+        state = x;
+        return x * 0x2545F4914F6CDD1DL;
+    }
+
+    @Override
+    protected int next(int bits) {
+        return (int) (nextLong() >>> (64 - bits));
+    }
+
+    @Override
+    public int nextInt(int bound) {
+        if (bound <= 0) {
+            throw new IllegalArgumentException("bound must be positive");
+        }
+        // Lemire's multiply-shift reduction; the bias is negligible for the small bounds (move counts) used here.
+        return (int) (((nextLong() >>> 32) * bound) >>> 32);
+    }
+}
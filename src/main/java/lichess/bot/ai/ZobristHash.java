@@ -0,0 +1,71 @@
+package lichess.bot.ai;
+
+import chesslib.Bitboard;
+import chesslib.Board;
+import chesslib.Piece;
+import chesslib.PieceType;
+import chesslib.Side;
+import chesslib.Square;
+
+/**
+ * 64-bit Zobrist keys (https://en.wikipedia.org/wiki/Zobrist_hashing) of positions, shared by all searches that keep
+ * positions in tables.
+ *
+ * The keys come from a fixed seed, so a position hashes the same in every run and keys can be stored on disk. Castling
+ * rights are left out since there is no castling in antichess; the en passant square only counts when a pawn of the
+ * side to move attacks it.
+ */
+public final class ZobristHash {
+    private static final long SEED = 0x6B616D696B617A65L;
+    private static final Piece[] PIECES = new Piece[Piece.values().length - 1]; // All but Piece.NONE
+    private static final long[][] PIECE_SQUARE_KEYS = new long[PIECES.length][64];
+    private static final long[] EN_PASSANT_KEYS = new long[64];
+    private static final long BLACK_TO_MOVE_KEY;
+
+    static {
+        XorShiftRandom random = new XorShiftRandom(SEED);
+        for (int piece = 0; piece < PIECES.length; piece++) {
+            PIECES[piece] = Piece.values()[piece];
+            for (int square = 0; square < 64; square++) {
+                PIECE_SQUARE_KEYS[piece][square] = random.nextLong();
+            }
+        }
+        for (int square = 0; square < 64; square++) {
+            EN_PASSANT_KEYS[square] = random.nextLong();
+        }
+        BLACK_TO_MOVE_KEY = random.nextLong();
+    }
+
+    private ZobristHash() {
+    }
+
+    public static long hash(Board board) {
+        long hash = 0;
+        for (int piece = 0; piece < PIECES.length; piece++) {
+            for (long pieces = board.getBitboard(PIECES[piece]); pieces != 0; pieces &= pieces - 1) {
+                hash ^= PIECE_SQUARE_KEYS[piece][Long.numberOfTrailingZeros(pieces)];
+            }
+        }
+        if (board.getSideToMove() == Side.BLACK) {
+            hash ^= BLACK_TO_MOVE_KEY;
+        }
+        if (canCaptureEnPassant(board)) {
+            hash ^= EN_PASSANT_KEYS[board.getEnPassant().ordinal()];
+        }
+        return hash;
+    }
+
+    /**
+     * Whether a pawn of the side to move attacks the en passant square. Board sets the square after every double pawn
+     * move but loadFromFen takes it as given, so it only tells positions apart if a capture there is possible.
+     */
+    private static boolean canCaptureEnPassant(Board board) {
+        Square enPassant = board.getEnPassant();
+        if (enPassant == Square.NONE) {
+            return false;
+        }
+        Side side = board.getSideToMove();
+        // Our pawns that attack the square are on the squares a pawn of theirs would attack from it.
+        return (Bitboard.getPawnAttacks(side.flip(), enPassant) & board.getBitboard(Piece.make(side, PieceType.PAWN))) != 0;
+    }
+}
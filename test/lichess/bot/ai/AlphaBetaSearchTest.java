@@ -0,0 +1,53 @@
+package lichess.bot.ai;
+
+import chesslib.Board;
+import chesslib.Square;
+import org.junit.Test;
+
+import java.time.Duration;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class AlphaBetaSearchTest {
+    @Test
+    public void provesForcedWin() {
+        // Given a state whereby a series of moves can guarantee a win
+        // See: figures/fig2.png
+        Board state = new Board();
+        state.loadFromFen("6b1/8/8/8/8/8/3PP3/7R w - -");
+
+        // When I search it to any depth
+        AlphaBetaSearch.Result result = new AlphaBetaSearch(new SimpleSuicideBoardEvaluator()).search(state, Duration.ofMinutes(1), 64);
+
+        // Then the winning move is found and proven
+        assertTrue(result.isProvenWin());
+        assertThat(result.getMove().getFrom(), is(Square.H1));
+        assertThat(result.getMove().getTo(), is(Square.H7));
+    }
+
+    @Test
+    public void doesNotLose() {
+        // Given the state from figures/fig3.png, where only two moves avoid a loss
+        Board state = new Board();
+        state.loadFromFen("8/8/8/2R5/5r2/8/8/8 w - -");
+
+        // When I search it
+        AlphaBetaSearch.Result result = new AlphaBetaSearch(new SimpleSuicideBoardEvaluator()).search(state, Duration.ofMinutes(1), 64);
+
+        // Then one of them is chosen
+        assertThat(result.getMove().getTo(), anyOf(is(Square.C4), is(Square.F5)));
+    }
+
+    @Test
+    public void dispatchesNarrowPositionsToAlphaBeta() {
+        // Given a pawn race with two moves a side, and the starting position
+        Board narrow = new Board();
+        narrow.loadFromFen("8/p7/8/8/8/8/P7/8 w - -");
+
+        // Then alpha-beta searches the first, and MCTS the second
+        assertThat(SearchDispatcher.choose(narrow), is(SearchDispatcher.Algorithm.ALPHA_BETA));
+        assertThat(SearchDispatcher.choose(new Board()), is(SearchDispatcher.Algorithm.MONTE_CARLO_TREE_SEARCH));
+    }
+}
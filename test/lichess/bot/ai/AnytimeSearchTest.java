@@ -0,0 +1,42 @@
+package lichess.bot.ai;
+
+import chesslib.Board;
+import chesslib.move.Move;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class AnytimeSearchTest {
+    @Test
+    public void canBeStoppedEarly() throws InterruptedException {
+        // Given a long search from the opening position with a subscriber
+        MonteCarloTreeSearch mcts = new MonteCarloTreeSearch(new Board());
+        List<SearchSnapshot> snapshots = new CopyOnWriteArrayList<>();
+
+        Instant before = Instant.now();
+        AnytimeSearch search = AnytimeSearch.start(mcts, Duration.ofMinutes(1), Long.MAX_VALUE);
+        search.subscribe(snapshots::add, Duration.ofMillis(50));
+
+        // When I stop it shortly after
+        Thread.sleep(500);
+        assertFalse(search.isDone());
+        search.stop();
+        Move move = search.awaitResult();
+
+        // Then it returns its best move so far, which the snapshots were streaming
+        assertThat(move, is(notNullValue()));
+        assertTrue(Duration.between(before, Instant.now()).getSeconds() < 10);
+        assertFalse(snapshots.isEmpty());
+        SearchSnapshot last = snapshots.get(snapshots.size() - 1);
+        assertTrue(last.getIterations() > 0);
+        assertThat(last.getBestMove(), is(notNullValue()));
+    }
+}
@@ -0,0 +1,104 @@
+package lichess.bot.ai;
+
+import chesslib.Board;
+import chesslib.move.Move;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPOutputStream;
+
+import static chesslib.Square.*;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class FlatOpeningBookTest {
+    @Test
+    public void convertedBookPlaysLikeTheOriginal() throws IOException {
+        // Given a book where 1. b3 e6 is the best line and 1. e3 is worse
+        OpeningBook book = new OpeningBook(new ByteArrayInputStream(gzip(
+                withChildren(node(0, 0, 0, 1), 2), // The root
+                node(52, 44, 1, 4), // e2e3, a leaf
+                withChildren(node(49, 41, 0, 1), 1), // b2b3
+                node(12, 20, 3, 1)))); // e7e6, a leaf
+
+        // When I convert it and map the result
+        Path file = Files.createTempFile("book", ".kzob");
+        FlatOpeningBook.write(book.getRootNode(), file);
+        FlatOpeningBook flatBook = FlatOpeningBook.open(file);
+
+        // Then it holds every node, and finds the same moves
+        assertThat(flatBook.size(), is(4));
+        int root = flatBook.getRoot();
+        assertThat(flatBook.findBestMove(root), is(book.findBestMove(book.getRootNode())));
+        assertThat(flatBook.findBestMove(root).get(), is(new Move(B2, B3)));
+
+        int afterB3 = flatBook.child(root, new Move(B2, B3));
+        assertThat(flatBook.findBestMove(afterB3).get(), is(new Move(E7, E6)));
+        assertThat(flatBook.getProof(flatBook.child(afterB3, new Move(E7, E6))), is(3));
+        assertThat(flatBook.child(afterB3, new Move(E7, E5)), is(FlatOpeningBook.NO_NODE));
+        assertThat(flatBook.findBestMove(flatBook.child(root, new Move(E2, E3))).isPresent(), is(false));
+
+        Files.delete(file);
+    }
+
+    @Test
+    public void findsTranspositionsByPosition() throws IOException {
+        // Given a book where 1. e3 e6 2. b3 and 1. b3 e6 2. e3 reach the same position, analysed further after 1. b3
+        OpeningBook book = new OpeningBook(new ByteArrayInputStream(gzip(
+                withChildren(node(0, 0, 0, 1), 2), // The root
+                withChildren(node(52, 44, 1, 1), 1), // e2e3
+                withChildren(node(12, 20, 1, 1), 1), // e7e6
+                node(49, 41, 2, 5), // b2b3, a leaf
+                withChildren(node(49, 41, 1, 1), 1), // b2b3
+                withChildren(node(12, 20, 1, 1), 1), // e7e6
+                withChildren(node(52, 44, 2, 7), 1), // e2e3
+                node(8, 16, 1, 1)))); // a7a6, a leaf
+        Path file = Files.createTempFile("book", ".kzob");
+        FlatOpeningBook.write(book.getRootNode(), file);
+        FlatOpeningBook flatBook = FlatOpeningBook.open(file);
+
+        // When I look up that position in a game that did not start from the starting position
+        Board board = new Board();
+        board.loadFromFen("rnbqkbnr/pppp1ppp/4p3/8/8/1P2P3/P1PP1PPP/RNBQKBNR b KQkq - 0 2");
+
+        // Then both books find the more analysed node, and positions the book does not have are not found
+        assertThat(book.findNode(board).disproof, is(7));
+        assertThat(flatBook.getDisproof(flatBook.findNode(board)), is(book.findNode(board).disproof));
+        assertThat(flatBook.findNode(new Board()), is(flatBook.getRoot()));
+        board.loadFromFen("rnbqkbnr/pppp1ppp/8/4p3/8/1P6/P1PPPPPP/RNBQKBNR w KQkq - 0 2");
+        assertThat(book.findNode(board), is(nullValue()));
+        assertThat(flatBook.findNode(board), is(FlatOpeningBook.NO_NODE));
+
+        Files.delete(file);
+    }
+
+    private static byte[] withChildren(byte[] node, int children) {
+        node[12] = (byte) children;
+        return node;
+    }
+
+    /**
+     * book.in.gz holding the nodes, each following its parent depth-first.
+     */
+    private static byte[] gzip(byte[]... nodes) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            for (byte[] node : nodes) {
+                out.write(node);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * A node of book.in.gz without children, its squares counted from a8.
+     */
+    private static byte[] node(int from, int to, int proof, int disproof) {
+        return new byte[]{(byte) from, (byte) to, 0, 0, (byte) proof, 0, 0, 0, (byte) disproof, 0, 0, 0, 0};
+    }
+}
@@ -0,0 +1,90 @@
+package lichess.bot.ai;
+
+import chesslib.Board;
+import chesslib.Square;
+import chesslib.move.Move;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class LearnedWinsTest {
+    @Test
+    public void remembersPositionsAcrossReopening() throws IOException {
+        // Given a win and a loss learned in one run, and a record cut short by a crash
+        Path file = Files.createTempFile("learned", ".kzlw");
+        Board won = new Board();
+        won.loadFromFen("8/8/8/2R5/5r2/8/8/8 w - -");
+        Board lost = new Board();
+        lost.loadFromFen("8/8/8/8/8/8/8/R6r w - -");
+        try (LearnedWins learnedWins = new LearnedWins(file)) {
+            learnedWins.recordWin(won, new Move(Square.C5, Square.C4));
+            learnedWins.recordLoss(lost);
+        }
+        Files.write(file, new byte[]{1, 2, 3}, StandardOpenOption.APPEND);
+
+        // When I open the file again
+        try (LearnedWins learnedWins = new LearnedWins(file)) {
+            // Then both positions are known, and nothing else
+            assertThat(learnedWins.size(), is(2));
+            assertThat(learnedWins.findWinningMove(won), is(new Move(Square.C5, Square.C4)));
+            assertTrue(learnedWins.isLost(lost));
+            assertFalse(learnedWins.isLost(won));
+            assertThat(learnedWins.findWinningMove(new Board()), is(nullValue()));
+        }
+        Files.delete(file);
+    }
+
+    @Test
+    public void solvedSearchesAreLearned() throws IOException {
+        // Given learned wins shared by searches of figures/fig3.png, which white wins
+        Path file = Files.createTempFile("learned", ".kzlw");
+        Board state = new Board();
+        state.loadFromFen("8/8/8/2R5/5r2/8/8/8 w - -");
+        try (LearnedWins learnedWins = new LearnedWins(file)) {
+            MonteCarloTreeSearch first = new MonteCarloTreeSearch(state);
+            first.setLearnedWins(learnedWins);
+
+            // When the first search solves it
+            first.findBestMove(Duration.ofMinutes(1));
+
+            // Then the winning move is learned
+            Move learned = learnedWins.findWinningMove(state);
+            assertThat(learned.getTo(), anyOf(is(Square.C4), is(Square.F5)));
+        }
+        Files.delete(file);
+    }
+
+    @Test
+    public void learnsFromInterruptedThreads() throws IOException {
+        // Given a search thread that was interrupted because its time is up
+        Path file = Files.createTempFile("learned", ".kzlw");
+        Board won = new Board();
+        won.loadFromFen("8/8/8/2R5/5r2/8/8/8 w - -");
+        Board lost = new Board();
+        lost.loadFromFen("8/8/8/8/8/8/8/R6r w - -");
+        boolean stillInterrupted;
+        try (LearnedWins learnedWins = new LearnedWins(file)) {
+            // When it learns a win, and a later search learns a loss
+            Thread.currentThread().interrupt();
+            learnedWins.recordWin(won, new Move(Square.C5, Square.C4));
+            stillInterrupted = Thread.interrupted();
+            learnedWins.recordLoss(lost);
+        }
+
+        // Then the thread stays interrupted, and both positions are in the file
+        assertTrue(stillInterrupted);
+        try (LearnedWins learnedWins = new LearnedWins(file)) {
+            assertThat(learnedWins.size(), is(2));
+        }
+        Files.delete(file);
+    }
+}
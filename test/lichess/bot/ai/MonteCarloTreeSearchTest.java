@@ -7,12 +7,25 @@ import org.hamcrest.CoreMatchers;
 import org.hamcrest.Matcher;
 import org.junit.Test;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static chesslib.Square.*;
 import static org.hamcrest.CoreMatchers.*;
-import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 
 public class MonteCarloTreeSearchTest {
     @Test
@@ -65,6 +78,39 @@ public class MonteCarloTreeSearchTest {
         assertThat(bestMove.getTo(), anyOf(is(Square.C4), is(Square.F5)));
     }
 
+    @Test
+    public void doesNotLoseWithTruncatedPlayouts() {
+        // Given the state from figures/fig3.png, searched with playouts cut off after 2 moves and scored by material
+        Board state = new Board();
+        state.loadFromFen("8/8/8/2R5/5r2/8/8/8 w - -");
+
+        MonteCarloTreeSearch mcts = new MonteCarloTreeSearch(state);
+        mcts.setPlayoutCutoff(2, new SimpleSuicideBoardEvaluator());
+
+        // When I search for the best move
+        // Then the move returned is still one of the winning moves
+        Move bestMove = mcts.findBestMove(200L);
+        assertThat(bestMove.getFrom(), is(Square.C5));
+        assertThat(bestMove.getTo(), anyOf(is(Square.C4), is(Square.F5)));
+    }
+
+    @Test
+    public void cutsPlayoutsOffAtExactlyTheirDepth() {
+        // Given a search from the opening position with playouts cut off after 3 moves
+        MonteCarloTreeSearch mcts = new MonteCarloTreeSearch(new Board());
+        Set<Integer> playoutLengths = new HashSet<>();
+        mcts.setPlayoutCutoff(3, (board, mySide) -> {
+            playoutLengths.add(board.getBackup().size());
+            return 1;
+        });
+
+        // When it searches
+        mcts.findBestMove(50L);
+
+        // Then every position scored by the evaluator is 3 random moves into its playout
+        assertThat(playoutLengths, is(Collections.singleton(3)));
+    }
+
     @Test
     public void winsWithLargeSearchSpace() {
         // Given a state where there is one obvious way to win but many possible moves that do not force win
@@ -95,7 +141,7 @@ public class MonteCarloTreeSearchTest {
         // See: figures/fig5.png
         // When I check to compute if this is a draw state
         // Then the answer should be false
-        assertFalse(MonteCarloTreeSearch.gameIsDraw(state));
+        assertThat(TerminalClassifier.classify(state), is(TerminalClassifier.Outcome.ONGOING));
     }
 
     @Test
@@ -119,6 +165,224 @@ public class MonteCarloTreeSearchTest {
         assertThat(bestMove.toString(), not(is("h2h3")));
     }
 
+    @Test
+    public void stopsSearchingOnceRootIsSolved() {
+        // Given the state from figures/fig3.png, where white wins by force
+        Board state = new Board();
+        state.loadFromFen("8/8/8/2R5/5r2/8/8/8 w - -");
+
+        MonteCarloTreeSearch mcts = new MonteCarloTreeSearch(state);
+
+        // When I search with an effectively unlimited budget
+        Instant before = Instant.now();
+        Move bestMove = mcts.findBestMove(Duration.ofMinutes(1));
+
+        // Then the search returns the winning move as soon as the win is proven
+        assertThat(bestMove.getTo(), anyOf(is(Square.C4), is(Square.F5)));
+        assertTrue(mcts.isGameGoingToEndSoon());
+        assertTrue(Duration.between(before, Instant.now()).getSeconds() < 10);
+    }
+
+    @Test
+    public void stopsEarlyWhenBestMoveCannotBeOvertaken() {
+        // Given the position from doesNotMakeStupidMove, where every move but one is quickly proven to lose
+        Board b = new Board();
+        b.loadFromFen("8/8/8/8/4K2p/8/4NP1P/8 w - - 0 23");
+        MonteCarloTreeSearch mcts = new MonteCarloTreeSearch(b);
+
+        // When I search with a generous time budget
+        Instant before = Instant.now();
+        Move bestMove = mcts.findBestMove(Duration.ofMinutes(1));
+
+        // Then it plays the only surviving move without using up the budget
+        assertThat(bestMove.toString(), is("e4f3"));
+        assertTrue(Duration.between(before, Instant.now()).getSeconds() < 10);
+    }
+
+    @Test
+    public void searchIsReproducibleWithFixedSeed() {
+        // Given two searches of the same position with the same seed
+        Board state = new Board();
+        state.loadFromFen("8/8/8/8/4K2p/8/4NP1P/8 w - - 0 23");
+        MonteCarloTreeSearch first = new MonteCarloTreeSearch(state, new XorShiftRandom(1234L));
+        MonteCarloTreeSearch second = new MonteCarloTreeSearch(state, new XorShiftRandom(1234L));
+
+        // When both search with the same search limit
+        Move firstMove = first.findBestMove(300L);
+        Move secondMove = second.findBestMove(300L);
+
+        // Then they reach exactly the same result
+        assertThat(secondMove, is(firstMove));
+        assertThat(second.evaluation(), is(first.evaluation()));
+    }
+
+    @Test
+    public void recordsSearchMetrics() {
+        // Given a search from the opening position
+        MonteCarloTreeSearch mcts = new MonteCarloTreeSearch(new Board());
+
+        // When it runs a fixed number of searches
+        mcts.findBestMove(200L);
+
+        // Then its metrics account for them
+        SearchMetrics metrics = mcts.getMetrics();
+        assertThat(metrics.getIterations(), is(200L));
+        assertThat(metrics.getPlayouts(), is(200L));
+        assertTrue(metrics.getMeanPlayoutLength() > 0);
+        assertTrue(metrics.getSimulationMillis() > 0);
+        assertThat(metrics.getTreeSize(), is(mcts.getTreeSize()));
+        assertTrue(metrics.getMaxDepth() >= 1);
+        assertTrue(metrics.toLogLine().contains(" iterations=200 "));
+    }
+
+    @Test
+    public void threadsShareOneTree() throws Exception {
+        // Given a search from the opening position
+        MonteCarloTreeSearch mcts = new MonteCarloTreeSearch(new Board());
+        mcts.setMemoryBudget(Long.MAX_VALUE, Long.MAX_VALUE);
+
+        // When four threads search it at the same time
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<Move>> moves = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            moves.add(executor.submit(() -> mcts.findBestMove(2000L)));
+        }
+        for (Future<Move> move : moves) {
+            assertThat(move.get(), is(notNullValue()));
+        }
+        executor.shutdown();
+
+        // Then no expansion is lost or counted twice
+        assertThat(mcts.getTreeSize(), is(mcts.countNodes()));
+    }
+
+    @Test
+    public void staysWithinNodeBudget() {
+        // Given a search from the opening position limited to 1000 nodes
+        MonteCarloTreeSearch mcts = new MonteCarloTreeSearch(new Board());
+        mcts.setMemoryBudget(1000, Long.MAX_VALUE);
+
+        // When it searches for longer than the budget allows
+        Move bestMove = mcts.findBestMove(500L);
+
+        // Then it still finds a move, and the tree is at most one expansion over the budget
+        assertThat(bestMove, is(notNullValue()));
+        assertTrue(mcts.getTreeSize() <= 1000 + 40);
+    }
+
+    @Test
+    public void treesShareOneMemoryBudget() {
+        // Given two searches sharing a budget of about 1000 nodes
+        SearchMemoryBudget budget = new SearchMemoryBudget(1000 * 1024);
+        MonteCarloTreeSearch first = new MonteCarloTreeSearch(new Board());
+        MonteCarloTreeSearch second = new MonteCarloTreeSearch(new Board());
+        first.setMemoryBudget(budget);
+        second.setMemoryBudget(budget);
+
+        // When both search for longer than their half allows
+        first.findBestMove(500L);
+        second.findBestMove(500L);
+
+        // Then each stays within its half, and the first gets it all once the second leaves
+        assertTrue(first.getTreeSize() <= 500 + 40);
+        assertTrue(second.getTreeSize() <= 500 + 40);
+        budget.leave(second);
+        first.findBestMove(1000L);
+        assertTrue(first.getTreeSize() > 500 + 40);
+        assertTrue(first.getTreeSize() <= 1000 + 40);
+    }
+
+    @Test
+    public void droppedTreesLeaveTheMemoryBudget() throws InterruptedException {
+        // Given two searches sharing a budget
+        SearchMemoryBudget budget = new SearchMemoryBudget(1000 * 1024);
+        MonteCarloTreeSearch kept = new MonteCarloTreeSearch(new Board());
+        kept.setMemoryBudget(budget);
+        new MonteCarloTreeSearch(new Board()).setMemoryBudget(budget);
+        assertThat(budget.getBytesPerTree(), is(500L * 1024));
+
+        // When the second is dropped without leaving and garbage collected
+        for (int i = 0; i < 100 && budget.getBytesPerTree() < 1000 * 1024; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+
+        // Then the first gets the whole budget, without any tree joining or leaving
+        assertThat(budget.getBytesPerTree(), is(1000L * 1024));
+        assertThat(kept.getTreeSize(), is(1L));
+    }
+
+    @Test
+    public void startsFromOpeningBookPriors() {
+        // Given a search from the opening position
+        MonteCarloTreeSearch mcts = new MonteCarloTreeSearch(new Board());
+
+        // When it is seeded twice with book ratios that favour 1. b3, before searching
+        Map<Move, Double> ratios = new HashMap<>();
+        ratios.put(new Move(B2, B3), 9.0);
+        ratios.put(new Move(E2, E3), 0.25);
+        mcts.seedPriors(Collections.emptyList(), ratios);
+        mcts.seedPriors(Collections.emptyList(), ratios);
+
+        // Then the search starts out preferring 1. b3 at the winrate the book gives it, counting each prior once
+        SearchSnapshot snapshot = mcts.snapshot();
+        assertThat(snapshot.getBestMove(), is(new Move(B2, B3)));
+        assertEquals(0.9, snapshot.getWinRate(), 1e-6);
+        assertEquals(0.5, snapshot.getVisitShare(), 1e-6);
+
+        // And seeding a good reply to 1. b3 counts against it, as a search would
+        mcts.seedPriors(Collections.singletonList(new Move(B2, B3)), Collections.singletonMap(new Move(E7, E6), 4.0));
+        snapshot = mcts.snapshot();
+        assertEquals((0.9 + 0.2) / 2, snapshot.getWinRate(), 1e-6);
+        assertEquals(40 / 60.0, snapshot.getVisitShare(), 1e-6);
+    }
+
+    @Test
+    public void creditsAllMovesAsFirstOnlyToTheMover() {
+        // Given a position where black, after taking the c2 pawn, plays c2c3 or c2c4 itself, while white's knight can
+        // come back and repeat its first move
+        Board state = new Board();
+        state.loadFromFen("8/8/8/8/q7/8/2P5/6N1 w - - 0 1");
+
+        for (long seed = 1; seed <= 10; seed++) {
+            // When I search it
+            MonteCarloTreeSearch mcts = new MonteCarloTreeSearch(state, new XorShiftRandom(seed));
+            mcts.findBestMove(1000L);
+
+            // Then the pawn moves only count when white played them, and the knight's later moves count as first
+            assertEquals(mcts.visitsOfMove(new Move(C2, C3)), mcts.amafVisitsOfMove(new Move(C2, C3)));
+            assertEquals(mcts.visitsOfMove(new Move(C2, C4)), mcts.amafVisitsOfMove(new Move(C2, C4)));
+            long knightVisits = 0;
+            long knightAmafVisits = 0;
+            for (Square to : Arrays.asList(E2, F3, H3)) {
+                knightVisits += mcts.visitsOfMove(new Move(G1, to));
+                knightAmafVisits += mcts.amafVisitsOfMove(new Move(G1, to));
+            }
+            assertTrue(knightAmafVisits > knightVisits);
+        }
+    }
+
+    @Test
+    public void reroots() {
+        // Given a tree grown from the opening position
+        MonteCarloTreeSearch mcts = new MonteCarloTreeSearch(new Board(), new XorShiftRandom(7));
+        mcts.findBestMove(2000L);
+
+        // When I reroot it at a position two moves in, without saying which moves led there
+        Board position = new Board();
+        position.doMove(new Move(E2, E3));
+        position.doMove(new Move(E7, E6));
+        boolean found = mcts.reroot(position);
+
+        // Then the subtree searched below that position is kept, and a position not in the tree starts a new one
+        assertTrue(found);
+        assertTrue(mcts.getTreeSize() > 1);
+        assertThat(mcts.snapshot().getSideToMove(), is(chesslib.Side.WHITE));
+        position.loadFromFen("8/8/8/8/8/8/1N6/r7 w - -");
+        assertThat(mcts.reroot(position), is(false));
+        assertThat(mcts.getTreeSize(), is(1L));
+    }
+
     private void assertNextMove(MonteCarloTreeSearch mcts, Square from, Square... to) {
         Move bestMove = mcts.findBestMove(500L);
         if (to.length == 1) {
@@ -0,0 +1,23 @@
+package lichess.bot.ai;
+
+import chesslib.Piece;
+import chesslib.move.Move;
+import org.junit.Test;
+
+import static chesslib.Square.*;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class MoveCodecTest {
+    @Test
+    public void decodesWhatItEncodes() {
+        // Given plain moves, promotions of both sides (antichess allows promoting to a king) and no move
+        // Then each decodes to what was encoded
+        for (Move move : new Move[]{new Move(E2, E4), new Move(G8, F6), new Move(A7, B8, Piece.WHITE_KING), new Move(H2, H1, Piece.BLACK_KNIGHT)}) {
+            assertThat(MoveCodec.decode(MoveCodec.encode(move)), is(move));
+        }
+        assertThat(MoveCodec.encode(null), is(MoveCodec.NO_MOVE));
+        assertThat(MoveCodec.decode(MoveCodec.NO_MOVE), is(nullValue()));
+    }
+}
@@ -0,0 +1,40 @@
+package lichess.bot.ai;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPOutputStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class OpeningBookTest {
+    @Test
+    public void loadsLinesDeeperThanTheCallStack() throws IOException {
+        // Given a book that is a single line of 100000 moves
+        int depth = 100000;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            for (int i = 0; i <= depth; i++) {
+                int children = i < depth ? 1 : 0;
+                out.write(new byte[]{62, 45, 0, 0, 1, 0, 0, 0, 1, 0, 0, 0, (byte) children});
+            }
+        }
+
+        // When I load it
+        OpeningBook book = new OpeningBook(new ByteArrayInputStream(bytes.toByteArray()));
+
+        // Then every node is there
+        assertTrue(book.isLoaded());
+        assertThat(book.getRootNode().size, is(depth + 1L));
+        OpeningBook.BookNode node = book.getRootNode();
+        for (int i = 0; i < depth; i++) {
+            node = node.children[0];
+        }
+        assertThat(node.children.length, is(0));
+        assertThat(node.parent.children[0], is(node));
+    }
+}
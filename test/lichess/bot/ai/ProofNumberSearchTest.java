@@ -0,0 +1,56 @@
+package lichess.bot.ai;
+
+import chesslib.Board;
+import chesslib.move.Move;
+import org.junit.Test;
+
+import java.time.Duration;
+
+import static chesslib.Square.*;
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+public class ProofNumberSearchTest {
+    @Test
+    public void provesForcedWin() {
+        // Given a state whereby a series of moves can guarantee a win
+        // See: figures/fig2.png
+        Board state = new Board();
+        state.loadFromFen("6b1/8/8/8/8/8/3PP3/7R w - -");
+
+        // When I look for a forced win
+        Move win = new ProofNumberSearch(20000).findForcedWin(state, Duration.ofMinutes(1));
+
+        // Then the first move of the winning sequence is found
+        assertThat(win, is(new Move(H1, H7)));
+    }
+
+    @Test
+    public void provesNothingWithoutForcedWin() {
+        // Given the starting position
+        Board state = new Board();
+
+        // When I look for a forced win with a small budget
+        Move win = new ProofNumberSearch(500).findForcedWin(state, Duration.ofMinutes(1));
+
+        // Then there is none
+        assertThat(win, is(nullValue()));
+    }
+
+    @Test
+    public void infiniteProofNumbersDoNotOverflow() {
+        // Given a defender node with two replies that hold, say two draws, each with an infinite proof number
+        ProofNumberSearch.Node n = new ProofNumberSearch.Node(null, null, false, 0);
+        n.children = new ProofNumberSearch.Node[]{new ProofNumberSearch.Node(null, n, true, 1), new ProofNumberSearch.Node(null, n, true, 1)};
+        for (ProofNumberSearch.Node child : n.children) {
+            child.setSolved(false);
+        }
+
+        // When its proof numbers are updated
+        ProofNumberSearch.updateProofNumbers(n);
+
+        // Then it is disproved, rather than the sum wrapping around to a negative proof number
+        assertThat(n.proof, is(ProofNumberSearch.INFINITY));
+        assertThat(n.disproof, is(0));
+    }
+}
@@ -0,0 +1,138 @@
+package lichess.bot.ai;
+
+import chesslib.Board;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class SearchSchedulerTest {
+    @Test
+    public void leastTimeLeftGoesFirst() throws InterruptedException {
+        // Given one core, held by a search
+        SearchScheduler scheduler = new SearchScheduler(1, 50);
+        SearchScheduler.Ticket holder = scheduler.newTicket();
+        holder.acquire();
+
+        // When a ponderer, a game with a minute left and a game with a second left queue up for it
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        Thread ponderer = waitForCore(scheduler, null, "ponderer", order);
+        Thread slowGame = waitForCore(scheduler, Instant.now().plusSeconds(60), "minute", order);
+        Thread fastGame = waitForCore(scheduler, Instant.now().plusSeconds(1), "second", order);
+        holder.release();
+        for (Thread thread : Arrays.asList(ponderer, slowGame, fastGame)) {
+            thread.join();
+        }
+
+        // Then they get it in order of their deadlines, the ponderer last
+        assertThat(order, is(Arrays.asList("second", "minute", "ponderer")));
+    }
+
+    @Test
+    public void handsTheCoreOnAfterEachSlice() throws InterruptedException {
+        // Given one core, held by a ponderer with 1ms slices
+        SearchScheduler scheduler = new SearchScheduler(1, 1);
+        SearchScheduler.Ticket ponderer = scheduler.newTicket();
+        ponderer.acquire();
+
+        // When a game queues up for the core and the ponderer reaches a checkpoint after its slice
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        Thread game = waitForCore(scheduler, Instant.now().plusSeconds(1), "game", order);
+        Thread.sleep(2);
+        ponderer.checkpoint();
+        order.add("ponderer");
+        ponderer.release();
+        game.join();
+
+        // Then the game searches before the ponderer resumes
+        assertThat(order, is(Arrays.asList("game", "ponderer")));
+    }
+
+    @Test
+    public void proofNumberAndAlphaBetaSearchesHandTheCoreOn() throws InterruptedException {
+        // Given a proof-number search and an alpha-beta search from the opening position, each with a ticket
+        ProofNumberSearch proofNumberSearch = new ProofNumberSearch(Long.MAX_VALUE);
+        AlphaBetaSearch alphaBetaSearch = new AlphaBetaSearch(new SimpleSuicideBoardEvaluator());
+
+        // When a game queues up for the only core while either runs on it
+        // Then the game gets the core before the search is done
+        assertHandsTheCoreOn((board, ticket) -> {
+            proofNumberSearch.setSchedulerTicket(ticket);
+            proofNumberSearch.findForcedWin(board, Duration.ofSeconds(10));
+        });
+        assertHandsTheCoreOn((board, ticket) -> {
+            alphaBetaSearch.setSchedulerTicket(ticket);
+            alphaBetaSearch.search(board, Duration.ofSeconds(10), 64);
+        });
+    }
+
+    @Test
+    public void monteCarloSearchWaitsForACoreBeforeExpandingTheRoot() throws InterruptedException {
+        // Given one core, held by another game
+        SearchScheduler scheduler = new SearchScheduler(1, 50);
+        SearchScheduler.Ticket holder = scheduler.newTicket();
+        holder.acquire();
+
+        // When a Monte Carlo search from the opening position queues up for it
+        MonteCarloTreeSearch mcts = new MonteCarloTreeSearch(new Board());
+        mcts.setSchedulerTicket(scheduler.newTicket());
+        Thread searcher = new Thread(() -> mcts.findBestMove(100L));
+        searcher.start();
+        while (searcher.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+
+        // Then it does not touch the tree until the core is free
+        assertThat(mcts.getTreeSize(), is(1L));
+        holder.release();
+        searcher.join();
+        assertThat(mcts.getTreeSize() > 1, is(true));
+    }
+
+    private static void assertHandsTheCoreOn(BiConsumer<Board, SearchScheduler.Ticket> search) throws InterruptedException {
+        SearchScheduler scheduler = new SearchScheduler(1, 1);
+        SearchScheduler.Ticket ticket = scheduler.newTicket();
+        Thread searcher = new Thread(() -> search.accept(new Board(), ticket));
+        searcher.start();
+        Thread.sleep(50);
+
+        SearchScheduler.Ticket game = scheduler.newTicket();
+        game.setDeadline(Instant.now().plusSeconds(1));
+        game.acquire();
+        assertThat(searcher.isAlive(), is(true));
+        game.release();
+
+        searcher.interrupt();
+        searcher.join();
+    }
+
+    /**
+     * Start a thread that takes a core, records its name and gives the core back, and return once it is waiting.
+     */
+    private static Thread waitForCore(SearchScheduler scheduler, Instant deadline, String name, List<String> order) throws InterruptedException {
+        SearchScheduler.Ticket ticket = scheduler.newTicket();
+        ticket.setDeadline(deadline);
+        Thread thread = new Thread(() -> {
+            try {
+                ticket.acquire();
+                order.add(name);
+                ticket.release();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        thread.start();
+        while (thread.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+        return thread;
+    }
+}
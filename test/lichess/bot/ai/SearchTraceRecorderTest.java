@@ -0,0 +1,81 @@
+package lichess.bot.ai;
+
+import chesslib.Board;
+import chesslib.move.Move;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.hamcrest.CoreMatchers.*;
+import static chesslib.Square.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class SearchTraceRecorderTest {
+    @Test
+    public void recordsSearchesAcrossReopening() throws IOException {
+        // Given a trace file that two searches are recorded to, reopening it in between
+        Path traceFile = Files.createTempFile("search", ".trace");
+        Board state = new Board();
+        state.loadFromFen("8/8/8/2R5/5r2/8/8/8 w - -");
+
+        Move first;
+        try (SearchTraceRecorder recorder = new SearchTraceRecorder(traceFile)) {
+            MonteCarloTreeSearch mcts = new MonteCarloTreeSearch(state);
+            mcts.setTraceRecorder(recorder);
+            first = mcts.findBestMove(200L);
+        }
+        try (SearchTraceRecorder recorder = new SearchTraceRecorder(traceFile)) {
+            MonteCarloTreeSearch mcts = new MonteCarloTreeSearch(new Board());
+            mcts.setTraceRecorder(recorder);
+            mcts.findBestMove(50L);
+        }
+
+        // When I render the file
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        SearchTraceReader.render(traceFile, null, new PrintStream(output, true));
+        Files.delete(traceFile);
+
+        // Then both searches are there, with the move that was played
+        String rendered = output.toString();
+        assertTrue(rendered.contains("8/8/8/2R5/5r2/8/8/8 w"));
+        assertTrue(rendered.contains("played " + first));
+        assertTrue(rendered.contains("rnbqkbnr/pppppppp"));
+        assertThat(rendered.trim().endsWith("2 searches"), is(true));
+    }
+
+    @Test
+    public void recordsFromInterruptedThreads() throws IOException {
+        // Given searches that are interrupted when their time is up, and records big enough to need remapping the file
+        Path traceFile = Files.createTempFile("search", ".trace");
+        Move[] moves = new Move[1000];
+        Arrays.fill(moves, new Move(E2, E4));
+        double[] winrates = new double[moves.length];
+        int[] provenValues = new int[moves.length];
+
+        // When I record from an interrupted thread
+        boolean stillInterrupted;
+        try (SearchTraceRecorder recorder = new SearchTraceRecorder(traceFile)) {
+            Thread.currentThread().interrupt();
+            for (int i = 0; i < 100; i++) {
+                recorder.record(i, new Board().getFen(), moves[0], 1, 1, 1, 0.5, 0, moves, new long[moves.length],
+                        winrates, provenValues, Collections.emptyList());
+            }
+        } finally {
+            stillInterrupted = Thread.interrupted();
+        }
+
+        // Then the thread is still interrupted, and every record can be read back
+        assertTrue(stillInterrupted);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        SearchTraceReader.render(traceFile, null, new PrintStream(output, true));
+        Files.delete(traceFile);
+        assertThat(output.toString().trim().endsWith("100 searches"), is(true));
+    }
+}
@@ -0,0 +1,28 @@
+package lichess.bot.ai;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class SearchWarmUpTest {
+    @Test
+    public void searchesEveryPositionEachRound() {
+        // Given a search factory that counts the searches it makes
+        AtomicInteger searchesMade = new AtomicInteger();
+
+        // When I warm up for at most two rounds
+        double rate = SearchWarmUp.run(board -> {
+            searchesMade.incrementAndGet();
+            return new MonteCarloTreeSearch(board);
+        }, 2);
+
+        // Then each round searched all three positions, and the search made progress
+        assertThat(searchesMade.get() % 3, is(0));
+        assertTrue(searchesMade.get() >= 3 && searchesMade.get() <= 6);
+        assertTrue(rate > 0);
+    }
+}
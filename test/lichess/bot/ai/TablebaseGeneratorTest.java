@@ -0,0 +1,39 @@
+package lichess.bot.ai;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+public class TablebaseGeneratorTest {
+    private static final int ROOK = 3;
+
+    @Test
+    public void solvesTwoPieceEndgames() throws IOException, InterruptedException {
+        // Given the tables for every two piece endgame
+        Path directory = Files.createTempDirectory("tablebase");
+        new TablebaseGenerator(directory, 2, 2).generate();
+        TablebaseMaterial material = TablebaseMaterial.parse("RvR");
+        TablebaseFile rookEndgame = TablebaseFile.open(directory.resolve(TablebaseFile.fileName(material)), material);
+
+        // When I look up positions with a white rook and a black rook
+        // Then the rook that has to capture loses at once: its opponent is left without pieces
+        int forcedCapture = material.indexOf(new int[]{ROOK, ROOK}, new int[]{0, 1}, new int[]{0, 7}, 2, 0); // Ra1 rh1, white to move
+        assertThat(rookEndgame.wdl(forcedCapture), is(TablebaseFile.LOSS));
+        assertThat(rookEndgame.distance(forcedCapture), is(1));
+
+        // And figures/fig3.png is a win for white
+        int figure3 = material.indexOf(new int[]{ROOK, ROOK}, new int[]{0, 1}, new int[]{34, 29}, 2, 0); // Rc5 rf4, white to move
+        assertThat(rookEndgame.wdl(figure3), is(TablebaseFile.WIN));
+
+        for (File file : directory.toFile().listFiles()) {
+            file.delete();
+        }
+        Files.delete(directory);
+    }
+}
@@ -0,0 +1,49 @@
+package lichess.bot.ai;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class TablebaseMaterialTest {
+    private static final int PAWN = 0;
+    private static final int KNIGHT = 1;
+    private static final int KING = 5;
+
+    @Test
+    public void numbersIdenticalPiecesAsOneSet() {
+        // Given two white knights against a black king
+        TablebaseMaterial material = TablebaseMaterial.parse("NNvK");
+
+        // Then the knights take C(64, 2) placements instead of 64 * 64
+        assertThat(material.getSize(), is(2 * 2016 * 64));
+
+        // And swapping them gives the same index
+        int[] types = {KNIGHT, KNIGHT, KING};
+        int[] sides = {0, 0, 1};
+        assertThat(material.indexOf(types, sides, new int[]{1, 62, 36}, 3, 0),
+                is(material.indexOf(types, sides, new int[]{62, 1, 36}, 3, 0)));
+    }
+
+    @Test
+    public void decodesEveryIndexToAPositionWithThatIndex() {
+        // Given materials with a mirrored piece, a mirrored pawn, identical pieces and identical pawns
+        for (String name : new String[]{"KRvN", "PvK", "NNvK", "KvPP"}) {
+            TablebaseMaterial material = TablebaseMaterial.parse(name);
+            int[] squares = new int[material.getPieceCount()];
+
+            // Then every valid position indexes back to where it was decoded from, with no pawn on the first or last rank
+            for (int index = 0; index < material.getSize(); index++) {
+                int sideToMove = material.decode(index, squares);
+                if (material.isValid(squares)) {
+                    assertThat(material.index(squares, sideToMove), is(index));
+                }
+                for (int slot = 0; slot < squares.length; slot++) {
+                    if (material.slotType(slot) == PAWN) {
+                        assertThat(squares[slot] >> 3 != 0 && squares[slot] >> 3 != 7, is(true));
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package lichess.bot.ai;
+
+import chesslib.Board;
+import chesslib.Square;
+import chesslib.move.Move;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class TablebaseTest {
+    private static Path directory;
+    private static Tablebase tablebase;
+
+    @BeforeClass
+    public static void generateTwoPieceTables() throws IOException, InterruptedException {
+        directory = Files.createTempDirectory("tablebase");
+        new TablebaseGenerator(directory, 2, 2).generate();
+        tablebase = Tablebase.open(directory);
+    }
+
+    @AfterClass
+    public static void deleteTables() throws IOException {
+        for (File file : directory.toFile().listFiles()) {
+            file.delete();
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    public void probesPositionsForTheSideToMove() {
+        // Given the position from figures/fig3.png, which white wins
+        Board state = new Board();
+        state.loadFromFen("8/8/8/2R5/5r2/8/8/8 w - -");
+
+        // Then it is a win with white to move, and a loss for white with the colours swapped
+        assertThat(tablebase.probe(state).getResult(), is(Tablebase.Result.WIN));
+        state.loadFromFen("8/8/8/2r5/5R2/8/8/8 b - -");
+        assertThat(tablebase.probe(state).getResult(), is(Tablebase.Result.WIN));
+
+        // And positions with more pieces than the tables are not found
+        assertThat(tablebase.probe(new Board()), is(nullValue()));
+    }
+
+    @Test
+    public void solvesTablebasePositionsWithoutSearching() {
+        // Given a search of figures/fig3.png that uses the tablebase
+        Board state = new Board();
+        state.loadFromFen("8/8/8/2R5/5r2/8/8/8 w - -");
+        MonteCarloTreeSearch mcts = new MonteCarloTreeSearch(state);
+        mcts.setTablebase(tablebase);
+
+        // When I search with a generous budget
+        Move bestMove = mcts.findBestMove(Duration.ofMinutes(1));
+
+        // Then the root is solved by expanding it once, and the move wins
+        assertTrue(mcts.isGameGoingToEndSoon());
+        assertThat(mcts.getMetrics().getIterations(), is(0L));
+        assertThat(bestMove.getTo(), anyOf(is(Square.C4), is(Square.F5)));
+    }
+
+    @Test
+    public void playsTheFastestWinAndTheSlowestLoss() {
+        // Given a king against a knight, which Kb2 wins in 13 plies and Kb1 or Ka2 in 15
+        Board winning = new Board();
+        winning.loadFromFen("8/8/8/8/8/8/8/K6n w - - 0 1");
+        // And a king against a queen, where Kb1 loses in 6 plies and Ka2 or Kb2 in 2
+        Board losing = new Board();
+        losing.loadFromFen("8/8/8/8/8/5q2/8/K7 w - - 0 1");
+
+        for (long seed = 1; seed <= 10; seed++) {
+            // When I search them with the tablebase
+            // Then the win is the fastest one, and the loss the slowest one
+            assertThat(bestMoveOf(winning, seed), is(new Move(Square.A1, Square.B2)));
+            assertThat(bestMoveOf(losing, seed), is(new Move(Square.A1, Square.B1)));
+        }
+    }
+
+    private static Move bestMoveOf(Board state, long seed) {
+        MonteCarloTreeSearch mcts = new MonteCarloTreeSearch(state.clone(), new Random(seed));
+        mcts.setTablebase(tablebase);
+        return mcts.findBestMove(Duration.ofSeconds(10));
+    }
+}
@@ -0,0 +1,39 @@
+package lichess.bot.ai;
+
+import chesslib.Board;
+import org.junit.Test;
+
+import static lichess.bot.ai.TerminalClassifier.Outcome.*;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class TerminalClassifierTest {
+    @Test
+    public void sideThatCannotMoveWins() {
+        // Given positions where white has no pieces, and where its only pawn is blocked
+        // Then white wins with white to move
+        assertThat(classify("8/8/8/8/8/8/8/r7 w - -"), is(WIN));
+        assertThat(classify("8/8/8/8/8/p7/P7/8 w - -"), is(WIN));
+
+        // And a player whose opponent already has no pieces has lost
+        assertThat(classify("8/8/8/8/8/8/8/r7 b - -"), is(LOSS));
+    }
+
+    @Test
+    public void bishopsOnOppositeColorsDraw() {
+        // Given lone bishops on opposite colors, and lone bishops on the same color
+        // Then the first is a draw and the second is not
+        assertThat(classify("8/8/8/3b4/8/8/8/2B5 w - -"), is(DRAW));
+        assertThat(classify("8/8/8/4b3/8/8/8/2B5 w - -"), is(ONGOING));
+
+        // And pawns locked on their own bishop's color keep it a draw, unless a bishop can get at them
+        assertThat(classify("8/8/8/4p3/4P3/8/8/b2B4 w - -"), is(DRAW));
+        assertThat(classify("8/8/8/3p4/3P4/8/8/b2B4 w - -"), is(ONGOING));
+    }
+
+    private static TerminalClassifier.Outcome classify(String fen) {
+        Board board = new Board();
+        board.loadFromFen(fen);
+        return TerminalClassifier.classify(board);
+    }
+}
@@ -0,0 +1,54 @@
+package lichess.bot.ai;
+
+import chesslib.Side;
+import chesslib.move.Move;
+import org.junit.Test;
+
+import static chesslib.Square.*;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class TimeManagerTest {
+    @Test
+    public void budgetsFromTheClockAndIncrement() {
+        // Given a minute on the clock at the start of a game
+        // When I budget a move without and with an increment
+        TimeManager withoutIncrement = TimeManager.forMove(60000, 0, 0);
+        TimeManager withIncrement = TimeManager.forMove(60000, 2000, 0);
+
+        // Then the move gets a share of the clock, more with the increment, and never most of the clock
+        long soft = withoutIncrement.getSoftLimit().toMillis();
+        assertTrue(soft > 1000 && soft < 3000);
+        assertTrue(withIncrement.getSoftLimit().toMillis() > soft);
+        assertTrue(withoutIncrement.getHardLimit().toMillis() >= soft);
+        assertTrue(TimeManager.forMove(1000, 5000, 0).getHardLimit().toMillis() <= 1000 / 4);
+        assertThat(TimeManager.forMove(0, 0, 0).isTimed(), is(false));
+    }
+
+    @Test
+    public void stretchesTheSoftLimitWhileTheBestMoveChanges() {
+        // Given a move with a soft limit of 1s and a hard limit of 3s
+        TimeManager stable = TimeManager.forMove(35150, 0, 0);
+        TimeManager wavering = TimeManager.forMove(35150, 0, 0);
+        assertThat(stable.getSoftLimit().toMillis(), is(1000L));
+        assertThat(stable.getHardLimit().toMillis(), is(3000L));
+
+        // When one search settles on a move and another keeps changing its mind
+        for (int i = 0; i < 5; i++) {
+            stable.shouldStop(snapshot(new Move(B2, B3), 0.3), i * 100);
+            wavering.shouldStop(snapshot(i % 2 == 0 ? new Move(B2, B3) : new Move(E2, E3), 0.3), i * 100);
+        }
+
+        // Then the stable one stops at the soft limit, earlier still once its move is clear, and the other goes on
+        assertThat(stable.shouldStop(snapshot(new Move(B2, B3), 0.3), 1000), is(true));
+        assertThat(TimeManager.forMove(35150, 0, 0).shouldStop(snapshot(new Move(B2, B3), 0.8), 500), is(true));
+        assertFalse(wavering.shouldStop(snapshot(new Move(B2, B3), 0.3), 1000));
+        assertTrue(wavering.shouldStop(snapshot(new Move(E2, E3), 0.3), 3000));
+    }
+
+    private static SearchSnapshot snapshot(Move bestMove, double visitShare) {
+        return new SearchSnapshot(Side.WHITE, bestMove, visitShare, 0.5, 1000, 1000, false);
+    }
+}
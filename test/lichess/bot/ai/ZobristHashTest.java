@@ -0,0 +1,41 @@
+package lichess.bot.ai;
+
+import chesslib.Board;
+import chesslib.move.Move;
+import org.junit.Test;
+
+import static chesslib.Square.*;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.junit.Assert.assertThat;
+
+public class ZobristHashTest {
+    @Test
+    public void hashesPositionsReachedByMovesLikeTheirFen() {
+        // Given 1. e4 played on a board, which can not be taken en passant
+        Board played = new Board();
+        played.doMove(new Move(E2, E4));
+
+        // Then it hashes like its FEN, with or without the en passant square
+        assertThat(ZobristHash.hash(played), is(hash("rnbqkbnr/pppppppp/8/8/4P3/8/PPPP1PPP/RNBQKBNR b KQkq e3 0 1")));
+        assertThat(ZobristHash.hash(played), is(hash("rnbqkbnr/pppppppp/8/8/4P3/8/PPPP1PPP/RNBQKBNR b KQkq - 0 1")));
+    }
+
+    @Test
+    public void enPassantSquareCountsWhenACaptureIsPossible() {
+        // Given a black pawn on d4, next to which white pushes e4
+        Board played = new Board();
+        played.loadFromFen("8/8/8/8/3p4/8/4P3/8 w - - 0 1");
+        played.doMove(new Move(E2, E4));
+
+        // Then the position differs from the one where the capture en passant has passed
+        assertThat(ZobristHash.hash(played), is(hash("8/8/8/8/3pP3/8/8/8 b - e3 0 1")));
+        assertThat(ZobristHash.hash(played), not(is(hash("8/8/8/8/3pP3/8/8/8 b - - 0 1"))));
+    }
+
+    private static long hash(String fen) {
+        Board board = new Board();
+        board.loadFromFen(fen);
+        return ZobristHash.hash(board);
+    }
+}